@@ -1,16 +1,18 @@
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import collisiondetection.MapCollision;
+import collisiondetection.SpatialHash;
 import collisiondetection.SpriteCollision;
+import state.LevelLoader;
+import state.PreparedLevel;
 import state.StateManager;
 import view.MenuManager;
 import view.ParallaxBackground;
-import collisiondetection.PlayerCollision;
-import collisiondetection.EnemyCollision;
+import collisiondetection.CollisionResolver;
 import game2D.*;
 import sprite.*;
 
@@ -27,8 +29,6 @@ import sprite.*;
  * @author David Cairns
  *
  */
-@SuppressWarnings("serial")
-
 public class Game extends GameCore
 {
     // Useful game constants
@@ -47,53 +47,237 @@ public class Game extends GameCore
     // menu manager
     private MenuManager menu;
     // sprite that uses ship background animation from
-    // Collection of projecties fired by the player
-    // LinkedQueue is most suitable for time based animations as it's FIFO
-    // ConcurrentLinkedQueue used to avoid ConcurrentModificationExceptions.
-    // As the data structure is 'linked' there is no array copying when deleting items - this is good for efficiency
-    private Queue<Projectile> fires;
-    // collection of enemies - Concurrent Queue taht is linked - as enemies will be added and removed frequently
-    private Queue<Enemy> enemies;
+    // Projectiles fired by the player and the level's enemies. The stores keep their
+    // positions and velocities in arrays so they can all be moved in one loop, and
+    // fill the gap left by a removed sprite with the last one so removing is cheap
+    private EntityStore<Projectile> fires;
+    private EntityStore<Enemy> enemies;
+    // projectiles that have burnt out, kept to be fired again
+    private SpritePool<Projectile> firePool;
     // the boss of level 3
     private Boss boss;
     // Collection of sprites building the parallax background
     private ParallaxBackground background;
-    // Our tile map, note that we load it in init()
-    private TileMap tmap = new TileMap();
+    // Our tile map, swapped for the next level's by initialiseLevel()
+    private TileMap tmap;
     // Handlers for collision
     private MapCollision mapCollision;
+    private CollisionResolver tileCollision;
     // Background sound
     Sound backgroundSound;
     // position of where the player sprite is frozen onto the screen.
     private final int PLAYER_SCREEN_OFFSET = 200;
     // how fast the player moves left / right
     private float VELOCITY_FACTOR = 0.1f;
+    // shortest time between shots in ms, so holding down fire doesn't fire on every key repeat
+    private static final int FIRE_COOLDOWN = 150;
+    // game time left until the player can fire again
+    private long fireCooldown = 0;
+    // the tile map is streamed in regions this many tiles wide
+    private static final int MAP_REGION_COLUMNS = 32;
+    // how many map regions to keep loaded, enough for the whole of the current 256 tile maps
+    private static final int MAP_REGIONS_LOADED = 8;
     // how long to wait before switching levels in ms.
     private final int LEVEL_CHANGE_DURATION = 2500;
+    // game time left until the next level starts, 0 when no level change is pending
+    private long levelChangeCountdown = 0;
     // Represents total time since game elapsed
     private long total;
     // tracks player progress
     private int LEVEL = 1;
     // used for random number generation
-    private SecureRandom rng;
+    private Random rng;
+    // seeds for the game, key and boss random number generators, kept so a recording can recreate them
+    private long[] seeds;
     // tracks game state
     private StateManager gameState;
+    // builds levels, the next one in the background once the key is collected
+    private LevelLoader levelLoader;
+    // frame timer phases for the parts of update we want to watch
+    private int collisionPhase;
+    private int enemyPhase;
+    // broadphase for sprite collisions, refilled every tick
+    private SpatialHash collisionHash;
+    // whether each enemy, by its place in the store, is touching the player
+    private boolean[] enemyContact = new boolean[16];
+    // reused by tile map queries so checking for walls doesn't allocate
+    private final TileHit tileHit = new TileHit();
+    // snapshot reused to draw frames when not using the render thread
+    private GameSnapshot frame = new GameSnapshot();
+
+    private static final Font HUD_FONT = new Font("Arial", Font.PLAIN,12);
+    private static final Color BACKGROUND_COLOUR = new Color(69, 69, 69);
+    private static final Color DAMAGE_COLOUR = new Color(130, 0, 0, 100);
+
+    /**
+     * Everything needed to draw a frame of the game, on top of the sprites
+     * recorded by RenderSnapshot.
+     */
+    private static class GameSnapshot extends RenderSnapshot {
+        TileMap map;
+        long total;
+        int enemiesRemaining;
+        int level;
+        boolean debug;
+        boolean dead;
+        boolean paused;
+        boolean won;
+        int menuState;
+        int menuItem;
+    }
 
 
     /**
      * The obligatory main method that creates
      * an instance of our class and starts it running
      *
-     * @param args	The list of parameters this program might use (ignored)
+     * @param args	The list of parameters this program might use. Passing
+     *              -headless [ticks] [-draw] runs the simulation without a window
+     *              and reports how many ticks per second it managed. -threaded
+     *              draws the game on its own thread. -record file writes the
+     *              session to an input log and -replay file [-realtime] [-draw]
+     *              plays one back without a window.
+     * @throws IOException If an input log can't be opened
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+
+        int headlessTicks = -1;
+        boolean render = false;
+        boolean threaded = false;
+        boolean realTime = false;
+        String recordFile = null;
+        String replayFile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-headless":
+                    headlessTicks = 10000;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                        headlessTicks = Integer.parseInt(args[++i]);
+                    }
+                    break;
+                case "-draw":
+                    render = true;
+                    break;
+                case "-threaded":
+                    threaded = true;
+                    break;
+                case "-realtime":
+                    realTime = true;
+                    break;
+                case "-record":
+                    recordFile = args[++i];
+                    break;
+                case "-replay":
+                    replayFile = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    break;
+            }
+        }
 
         Game gct = new Game();
+        InputReplay replay = null;
+        if (replayFile != null) {
+            // the recorded seeds have to be in place before init() uses them
+            replay = new InputReplay(replayFile);
+            gct.setSeeds(replay.getSeeds());
+        }
         gct.init();
+        // Simulate at a steady 100 ticks a second whatever the frame rate
+        gct.setFixedTimestep(true, 100);
+
+        if (replay != null) {
+            boolean matched = gct.runReplay(replay, realTime, render);
+            System.exit(matched ? 0 : 1);
+        }
+
+        if (headlessTicks >= 0) {
+            gct.runHeadless(headlessTicks, render);
+            // sound threads would otherwise keep the JVM alive
+            System.exit(0);
+        }
+
+        if (recordFile != null) {
+            gct.setRecorder(new InputRecorder(recordFile, gct.getSeeds()));
+        }
+        gct.setThreadedRendering(threaded);
+
         // Start in windowed mode with the given screen height and width
         gct.run(false, screenWidth, screenHeight);
     }
 
+    /**
+     * Runs the game without a display for benchmarking and soak testing.
+     * The start menu is skipped and no input is given, so the player stands
+     * still while enemies and the level carry on around them.
+     *
+     * @param ticks  Number of ticks to simulate
+     * @param render True to also draw every tick into an offscreen image
+     */
+    public void runHeadless(int ticks, boolean render) {
+        HeadlessRunner runner = new HeadlessRunner(this, screenWidth, screenHeight);
+        togglePause();
+        runner.run(ticks, getTickMillis(), render);
+        System.out.println(runner);
+        System.out.print(getFrameTimer());
+    }
+
+    /**
+     * Plays back a recorded session without a display and checks that the
+     * game ends up in the same state it was in when the recording finished.
+     *
+     * @param replay   The recording to play, whose seeds were passed to setSeeds() before init()
+     * @param realTime True to play at the recorded speed, false to run as fast as possible
+     * @param render   True to also draw every tick into an offscreen image
+     * @return True if the end state matches the recording
+     * @throws IOException If the recording can't be read
+     */
+    public boolean runReplay(InputReplay replay, boolean realTime, boolean render) throws IOException {
+        HeadlessRunner runner = new HeadlessRunner(this, screenWidth, screenHeight);
+        runner.replay(replay, realTime, render);
+        System.out.println(runner);
+        System.out.print(getFrameTimer());
+
+        String expected = replay.getEndState();
+        String actual = describeState();
+        System.out.println("Recorded: " + expected);
+        System.out.println("Replayed: " + actual);
+        boolean matched = actual.equals(expected);
+        System.out.println(matched ? "Replay matches the recording" : "Replay diverged from the recording");
+        return matched;
+    }
+
+    /**
+     * Sets the seeds for the game, key and boss random number generators.
+     * Must be called before init(), otherwise init() picks random seeds.
+     *
+     * @param seeds The seeds, as returned by getSeeds()
+     */
+    public void setSeeds(long[] seeds) {
+        if (seeds.length != 3) {
+            throw new IllegalArgumentException("Expected 3 seeds, got " + seeds.length);
+        }
+        this.seeds = seeds.clone();
+    }
+
+    /**
+     * @return The seeds the random number generators were started with
+     */
+    public long[] getSeeds() {
+        return seeds.clone();
+    }
+
+    /**
+     * Summarises where the game is up to so a replay can be checked against its recording.
+     */
+    @Override
+    public String describeState() {
+        return String.format("level %d, time %d, player %.3f,%.3f health %d, enemies %d, boss %d",
+                LEVEL, total, player.getX(), player.getY(), player.getHealth(), enemies.size(),
+                boss == null ? 0 : boss.getHealth());
+    }
+
     /**
      * Initialise the class, e.g. set up variables, load images,
      * create animations, register event handlers
@@ -108,14 +292,33 @@ public class Game extends GameCore
 
         // Initialise the player with an animation
         player = new Hero();
-        key = new Key();
+        if (seeds == null) {
+            SecureRandom seeder = new SecureRandom();
+            seeds = new long[] { seeder.nextLong(), seeder.nextLong(), seeder.nextLong() };
+        }
+        key = new Key(seeds[1]);
         portal = new Portal();
 
         // initialise parallax background
         background = new ParallaxBackground(screenWidth, screenHeight, player);
         background.init();
 
-        rng = new SecureRandom();
+        rng = new Random(seeds[0]);
+        levelLoader = new LevelLoader(screenWidth, MAP_REGION_COLUMNS, MAP_REGIONS_LOADED, seeds[2]);
+        firePool = new SpritePool<Projectile>(8) {
+            protected Projectile create() {
+                return new Projectile();
+            }
+
+            protected void reset(Projectile p) {
+                p.reset();
+            }
+        };
+        // a projectile lasts longer than FIRE_COOLDOWN, so a few can be alive at once
+        firePool.prewarm(4);
+
+        collisionPhase = getFrameTimer().addPhase("collision");
+        enemyPhase = getFrameTimer().addPhase("enemy AI");
 
         menu = new MenuManager(screenWidth, screenHeight);
 
@@ -132,8 +335,15 @@ public class Game extends GameCore
      */
     public void initialiseLevel()
     {
-        // Load the tile map and print it out so we can check it is valid
-        tmap.loadMap("maps", "map" + LEVEL + ".txt");
+        // any pending level change is superseded by this one
+        levelChangeCountdown = 0;
+
+        // Swap in the level's map and enemies, built in the background if the level
+        // was asked for early enough, and print the map so we can check it is valid.
+        // Snapshots hold on to the map they were captured with, so replacing it here
+        // doesn't change the map under a frame that is being drawn.
+        PreparedLevel next = levelLoader.take(LEVEL, rng);
+        tmap = next.getMap();
         System.out.println(tmap);
 
         // ensure sound is at normal speed
@@ -144,6 +354,8 @@ public class Game extends GameCore
 
         // initialise collision handler for the map
         mapCollision = new MapCollision(screenWidth, tmap, player, key, PLAYER_SCREEN_OFFSET);
+        tileCollision = new CollisionResolver(tmap);
+        collisionHash = new SpatialHash(tmap.getTileWidth(), tmap.getTileHeight());
 
         total = 0;
 
@@ -166,99 +378,165 @@ public class Game extends GameCore
         if (LEVEL != 3)
             portal.show();
 
-        // reset enemies
-        enemies = new ConcurrentLinkedQueue<Enemy>();
-        addEnemies(LEVEL);
+        // reset enemies, the last level's going back to the loader to be used again
+        if (enemies != null) {
+            enemies.clear(levelLoader.getEnemyPool());
+        }
+        enemies = next.getEnemies();
+        if (next.getBoss() != null) {
+            boss = next.getBoss();
+        }
 
         // reset projectiles
-        fires = new ConcurrentLinkedQueue<Projectile>();
+        if (fires == null) {
+            fires = new EntityStore<Projectile>(16);
+        }
+        fires.clear(firePool);
+        fireCooldown = 0;
     }
 
     /**
-     * Draw the current state of the game
+     * Draw the current state of the game. The state is captured into a
+     * snapshot and drawn from that, so the output is the same as when the
+     * render thread draws a snapshot captured by the game loop.
      */
     public void draw(Graphics2D g)
     {
+        capture(frame);
+        draw(g, frame);
+    }
+
+    /**
+     * Creates the snapshot type used to draw the game, which also carries
+     * the values shown on the HUD and menus.
+     */
+    public RenderSnapshot createSnapshot()
+    {
+        return new GameSnapshot();
+    }
+
+    /**
+     * Records everything that needs to be drawn this frame into 'snapshot'
+     *
+     * @param snapshot The GameSnapshot to fill in
+     */
+    public void capture(RenderSnapshot snapshot)
+    {
+        GameSnapshot s = (GameSnapshot)snapshot;
+        s.clear();
+
         // Be careful about the order in which you draw objects - you
         // should draw the background first, then work your way 'forward'
 
-        // set up font to be used
-        g.setFont(new Font("Arial", Font.PLAIN,12));
-
         // First work out how much we need to shift the view
         // in order to see where the player is.
-        int xo = (int)((player.getX() - PLAYER_SCREEN_OFFSET)*-1);
+        int xo = (int)((player.getDrawX() - PLAYER_SCREEN_OFFSET)*-1);
         int yo = tmap.getTileHeight() * -1;
+        // Tile map requires a different offset from the player
+        s.setScroll(xo, 0);
 
-        // setup background
-        g.setColor(new Color(69, 69, 69));
-        g.fillRect(0, 0, getWidth(), getHeight());
-
-        // draw parallax background
-        background.draw(g);
+        // parallax background
+        background.capture(s);
 
-        // draw each sprite for projectiles
-        for (Projectile fireSprite: fires) {
+        // each sprite for projectiles
+        for (int i = 0; i < fires.size(); i++) {
+            Projectile fireSprite = fires.getSprite(i);
             fireSprite.setOffsets(xo, yo);
-            fireSprite.drawTransformed(g);
+            s.addSprite(fireSprite);
         }
 
-        // Apply offsets to player and draw
-        // player.setOffsets(xo, yo);
+        // Apply offsets to player
         player.setOffsets(xo, yo);
-        g.setColor(player.getHealthColour());
-        g.draw(player.getHealthRectangle(xo));
-        player.drawTransformed(g);
+        s.addOutline(player, player.getHealthColour(), player.getHealthRectangle(xo));
+        s.addSprite(player);
 
         if (player.getDamaged() > 0) {
-            g.setColor(new Color(130, 0, 0, 100));
-            g.fillRect(0,0, screenWidth, screenHeight);
+            s.addFill(null, DAMAGE_COLOUR, 0, 0, screenWidth, screenHeight);
         }
 
-        // draw enemies
-        for (Enemy e: enemies) {
-            e.setOffsets(xo, yo);
-            e.drawTransformed(g, xo, yo);
+        // enemies
+        for (int i = 0; i < enemies.size(); i++) {
+            enemies.getSprite(i).capture(s, xo, yo);
         }
 
         if (boss != null && LEVEL == 3) {
-            boss.drawTransformed(g, xo, yo);
+            boss.capture(s, xo, yo);
         }
 
-        // draw the key on top of the map
+        // the key on top of the map
         key.setOffsets(xo, yo);
-        key.draw(g);
+        s.addSprite(key);
 
-        // draw portal
+        // portal
         portal.setOffsets(xo, yo);
-        portal.draw(g);
+        s.addSprite(portal);
+
+        // values for the HUD and menus
+        s.map = tmap;
+        s.total = total;
+        s.enemiesRemaining = enemies.size();
+        s.level = LEVEL;
+        s.debug = VELOCITY_FACTOR == 1f;
+        s.dead = gameState.getDead();
+        s.paused = gameState.getPause();
+        s.won = gameState.getWin();
+        if (s.paused && !s.won && !s.dead) {
+            s.menuState = gameState.decideState(LEVEL, gameState.getPause(), boss);
+        }
+        s.menuItem = menu.menuItem;
+    }
 
-        // Apply offsets to tile map and draw  it
-        // requires a different offset from the player
-        tmap.draw(g, xo, 0);
+    /**
+     * Draws a snapshot made by capture(). Only the snapshot is read, so this
+     * is safe to call on the render thread while the game is being updated.
+     *
+     * @param g        The graphics object to draw to
+     * @param snapshot The GameSnapshot to draw
+     */
+    public void draw(Graphics2D g, RenderSnapshot snapshot)
+    {
+        GameSnapshot s = (GameSnapshot)snapshot;
+
+        // set up font to be used
+        g.setFont(HUD_FONT);
+
+        // setup background
+        g.setColor(BACKGROUND_COLOUR);
+        g.fillRect(0, 0, getWidth(), getHeight());
+
+        // sprites and health bars in the order they were captured
+        s.drawCommands(g);
+
+        // Apply offsets to tile map and draw it
+        s.map.draw(g, s.getScrollX(), s.getScrollY());
 
         // Show score and status information
         g.setColor(Color.WHITE);
-        String timeMsg = String.format("Game Time %d", total);
+        String timeMsg = String.format("Game Time %d", s.total);
         g.drawString(timeMsg, getWidth() - 120, 50);
 
 
         // score and game time
-        String msgDbug = "Enemies Remaining " + enemies.size();
-        String msgDbug2 = "Level " + LEVEL;
+        String msgDbug = "Enemies Remaining " + s.enemiesRemaining;
+        String msgDbug2 = "Level " + s.level;
         g.drawString(msgDbug, getWidth() - 200, 100);
         g.drawString(msgDbug2, getWidth() - 200, 120);
 
-        if (VELOCITY_FACTOR == 1f) {
+        if (s.debug) {
             g.setColor(new Color(170, 250, 50, 200));
             g.drawString("DBUG Enabled!!!", getWidth() - 200, 140);
+            // frame time percentiles help spot stutter while debugging
+            FrameTimer timer = getRenderTimer();
+            g.drawString(String.format("FPS %.0f  frame p50 %.1fms p99 %.1fms", timer.getFPS(),
+                    timer.getPercentile(FrameTimer.FRAME, 50) / 1000000.0,
+                    timer.getPercentile(FrameTimer.FRAME, 99) / 1000000.0), getWidth() - 200, 160);
         }
 
         // presedence is important
         // checking for death has to be first
         // then to see if the game is paused
         // then to see if the game is won
-        if (gameState.getDead()) {
+        if (s.dead) {
             g.setColor(new Color(170, 50, 50, 200));
             g.fillRect(0,0, screenWidth, screenHeight);
             g.setColor(Color.BLACK);
@@ -266,10 +544,9 @@ public class Game extends GameCore
             g.drawString("GAME OVER!!!", screenWidth/2 - 200, screenHeight/2);
             g.setFont(new Font("Courier", Font.BOLD,24));
             g.drawString("Press Q to retry", screenWidth/2 - 140, screenHeight/2 + 50);
-        } else if (gameState.getPause() && ! gameState.getWin() && ! gameState.getDead()) {
-            int state = gameState.decideState(LEVEL, gameState.getPause(), boss);
-            menu.draw(g, state);
-        } else if (gameState.getWin()) {
+        } else if (s.paused && ! s.won && ! s.dead) {
+            menu.draw(g, s.menuState, s.menuItem);
+        } else if (s.won) {
             g.setColor(new Color(50, 50, 50, 200));
             g.fillRect(0,0, screenWidth, screenHeight);
             g.setColor(new Color(50, 255, 255));
@@ -292,6 +569,29 @@ public class Game extends GameCore
             return;
         }
 
+        // keep the map regions under the enemies loaded wherever they are, then get
+        // the regions around the camera ready before they come into view
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy e = enemies.getSprite(i);
+            tmap.holdAround((int)e.getX(), e.getWidth());
+        }
+        if (boss != null && LEVEL == 3) {
+            tmap.holdAround((int)boss.getX(), boss.getWidth());
+        }
+        tmap.streamAround((int)player.getX() - PLAYER_SCREEN_OFFSET, screenWidth);
+
+        // start the next level once the end of level delay has run out
+        if (levelChangeCountdown > 0) {
+            levelChangeCountdown -= elapsed;
+            if (levelChangeCountdown <= 0) {
+                initialiseLevel();
+            }
+        }
+
+        if (fireCooldown > 0) {
+            fireCooldown -= elapsed;
+        }
+
         if (player.getHealth() < 1) {
             niceTry();
         }
@@ -315,12 +615,15 @@ public class Game extends GameCore
         player.update(elapsed);
         portal.update(elapsed);
         key.update(elapsed);
-        // loops for the collections
-        for (Projectile s: fires) {
+        // projectiles go once their animation has played, from the end as the
+        // last projectile fills the gap left by a removed one
+        fires.integrate(elapsed);
+        for (int i = fires.size() - 1; i >= 0; i--) {
+            Projectile s = fires.getSprite(i);
             s.update(elapsed);
             if (s.getAnimation().hasLooped()) {
-                s.hide();
-                fires.remove(s);
+                fires.removeAt(i);
+                firePool.release(s);
                 if (player.getVelocityX() > 0) {
                     player.setRunning();
                 } else {
@@ -330,45 +633,47 @@ public class Game extends GameCore
         }
 
         // Then check for any collisions that may have occurred
+        FrameTimer timer = getFrameTimer();
+        timer.begin(collisionPhase);
         handlePlayerCollision(player);
-        for (Enemy e : enemies) {
-            e.update(elapsed, player.getX());
-            e.setVelocityY(e.getVelocityY()+(gravity * elapsed));
-            handleEnemyCollision(e);
-
-            // check if enemies are hit by player projectiles
-            for (Projectile f : fires) {
-                // only do this if the sprite is on-screen, we don't need to detect for every single enemy.
-                if (SpriteCollision.boundingBoxCollision(e, f)) {
-                    // drain & kill the enemy!
-                    e.drainHealth();
-                    if (e.getHealth() < 0) {
-                        enemies.remove(e);
-                    }
-                }
-            }
+        timer.end(collisionPhase);
+
+        // enemies look for the player from where they were, then all move at once
+        // before each decides what to do and is kept out of the walls
+        timer.begin(enemyPhase);
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy e = enemies.getSprite(i);
+            e.setPlayerInSight(canSeePlayer(e));
+        }
+        enemies.integrate(elapsed);
+        for (int i = 0; i < enemies.size(); i++) {
+            enemies.getSprite(i).update(elapsed, player.getX());
+        }
+        enemies.applyGravity(gravity, elapsed);
+        timer.end(enemyPhase);
 
-            // check if player is hit by enemy or enemy attacks
-            if (SpriteCollision.boundingBoxCollision(player, e.getAttack()) || SpriteCollision.boundingBoxCollision(player, e)) {
-                player.drainHealth();
-                // speed music up if playr is low hp.
-                if (player.getHealth() < 500) {
-                    backgroundSound.switchEffect(Sound.FAST_EFFECT);
-                }
-            } else {
-                // interaction for flashing damage on screen when getting hit
-                player.checkDamaged(elapsed);
-            }
+        timer.begin(collisionPhase);
+        for (int i = 0; i < enemies.size(); i++) {
+            handleEnemyCollision(enemies.getSprite(i));
         }
+        timer.end(collisionPhase);
+
+        // now everything has moved, find the sprites that are near each other
+        timer.begin(collisionPhase);
+        fillCollisionHash();
+        handleProjectileHits();
+        handleEnemyContact(elapsed);
+        timer.end(collisionPhase);
 
         if (boss != null && LEVEL == 3) {
             boss.update(elapsed, player.getX());
             handleEnemyCollision(boss);
             // check if enemies are hit by player projectiles
-            for (Projectile f : fires) {
+            for (int i = 0; i < fires.size(); i++) {
+                Projectile f = fires.getSprite(i);
                 // todo -
                 // only do this if the sprite is on-screen, we don't need to detect for every single enemy.
-                if (SpriteCollision.boundingBoxCollision(boss, f)) {
+                if (SpriteCollision.movingCollision(boss, f) && f.reaches(boss)) {
                     // drain & kill the enemy!
                     boss.drainHealth();
                     if (boss.getHealth() < 0 && boss.isVisible()) {
@@ -379,7 +684,7 @@ public class Game extends GameCore
 
             // check if player is hit by boss attacks
             Sprite bossAttack = boss.getAttack();
-            if (bossAttack != null && SpriteCollision.boundingBoxCollision(player, bossAttack)) {
+            if (bossAttack != null && SpriteCollision.movingCollision(player, bossAttack)) {
                 player.drainHealth();
                 // speed music up if playr is low hp.
                 if (player.getHealth() < 500) {
@@ -392,8 +697,11 @@ public class Game extends GameCore
         }
 
         // player has collected key
-        if (SpriteCollision.boundingBoxCollision(player, key)) {
-            key.keyCollected(tmap, LEVEL);
+        int pickups = collisionHash.findPairs(SpatialHash.PLAYER, SpatialHash.PICKUP);
+        for (int i = 0; i < pickups; i++) {
+            if (SpriteCollision.movingCollision(player, collisionHash.getSecond(i))) {
+                collectKey();
+            }
         }
 
         // check if end level sequence is needed.
@@ -407,35 +715,144 @@ public class Game extends GameCore
      * @param s Sprite representing player
      */
     private void handlePlayerCollision(Sprite s) {
-        PlayerCollision p = new PlayerCollision(s, tmap, (int)((( s.getX() * -1)/2)), tmap.getTileHeight() * 2);
-        p.applyCollisionRules();
+        tileCollision.resolvePlayer(s);
         mapCollision.handleTileMapCollisions(s);
 
         // find the key
         if ((player.getX() / 32 == 143) && (player.getY() / 32 == 13)) {
-            key.keyCollected(tmap, LEVEL);
+            collectKey();
         }
     }
 
+    /**
+     * Collects the key, opening the way to the portal, and starts building
+     * the next level in the background so it is ready when the player gets there.
+     */
+    private void collectKey() {
+        if (key.isVisible() && LEVEL < 3) {
+            levelLoader.prepare(LEVEL + 1, rng);
+        }
+        key.keyCollected(tmap, LEVEL);
+    }
+
+    /**
+     * Puts this tick's player, key, enemies, enemy attacks and projectiles into
+     * the collision hash. Enemies are tagged with their place in the enemy store.
+     */
+    private void fillCollisionHash() {
+        collisionHash.clear();
+        collisionHash.insert(player, SpatialHash.PLAYER, 0);
+        collisionHash.insert(key, SpatialHash.PICKUP, 0);
+
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy e = enemies.getSprite(i);
+            collisionHash.insert(e, SpatialHash.ENEMY, i);
+            collisionHash.insert(e.getAttack(), SpatialHash.ENEMY_ATTACK, i);
+        }
+
+        for (int i = 0; i < fires.size(); i++) {
+            collisionHash.insert(fires.getSprite(i), SpatialHash.PROJECTILE, i);
+        }
+    }
+
+    /**
+     * Damages enemies hit by the player's projectiles. Enemies that are killed are
+     * removed once every hit has been dealt with, rather than while the enemies
+     * are being looked through.
+     */
+    private void handleProjectileHits() {
+        int pairs = collisionHash.findPairs(SpatialHash.ENEMY, SpatialHash.PROJECTILE);
+        for (int i = 0; i < pairs; i++) {
+            Enemy e = enemies.getSprite(collisionHash.getFirstTag(i));
+            Projectile f = (Projectile)collisionHash.getSecond(i);
+            if (SpriteCollision.movingCollision(e, f) && f.reaches(e)) {
+                // drain the enemy!
+                e.drainHealth();
+            }
+        }
+    }
+
+    /**
+     * Hurts the player for each enemy, or enemy attack, that they are touching.
+     * Killed enemies are removed here, after they have had their last chance to
+     * hurt the player.
+     * @param elapsed time since the last update
+     */
+    private void handleEnemyContact(long elapsed) {
+        int enemyCount = enemies.size();
+        if (enemyContact.length < enemyCount) {
+            enemyContact = new boolean[enemyCount * 2];
+        }
+        Arrays.fill(enemyContact, 0, enemyCount, false);
+        int pairs = collisionHash.findPairs(SpatialHash.PLAYER, SpatialHash.ENEMY);
+        for (int i = 0; i < pairs; i++) {
+            if (SpriteCollision.movingCollision(player, collisionHash.getSecond(i))) {
+                enemyContact[collisionHash.getSecondTag(i)] = true;
+            }
+        }
+        pairs = collisionHash.findPairs(SpatialHash.PLAYER, SpatialHash.ENEMY_ATTACK);
+        for (int i = 0; i < pairs; i++) {
+            if (SpriteCollision.movingCollision(player, collisionHash.getSecond(i))) {
+                enemyContact[collisionHash.getSecondTag(i)] = true;
+            }
+        }
+
+        for (int i = 0; i < enemyCount; i++) {
+            // check if player is hit by enemy or enemy attacks
+            if (enemyContact[i]) {
+                player.drainHealth();
+                // speed music up if playr is low hp.
+                if (player.getHealth() < 500) {
+                    backgroundSound.switchEffect(Sound.FAST_EFFECT);
+                }
+            } else {
+                // interaction for flashing damage on screen when getting hit
+                player.checkDamaged(elapsed);
+            }
+
+            // kill the enemy
+            if (enemies.getSprite(i).getHealth() < 0) {
+                enemies.kill(i);
+            }
+        }
+        enemies.removeDead(levelLoader.getEnemyPool());
+    }
+
+    /**
+     * Checks if an enemy can see the player, which it can if there are no solid
+     * tiles in the way. The map is only looked at when the enemy's attack is
+     * close enough to go after the player.
+     * @param e Enemy that is looking
+     * @return true if the player is in sight
+     */
+    private boolean canSeePlayer(Enemy e) {
+        float dx = player.getX() - e.getAttack().getX();
+        if (dx > 500 || dx < -500) {
+            return true;
+        }
+        // sprites are drawn a tile higher than the map
+        int yo = tmap.getTileHeight();
+        return !tmap.raycast(e.getX() + e.getWidth() / 2f, e.getY() + e.getHeight() / 2f - yo,
+                player.getX() + player.getWidth() / 2f, player.getY() + player.getHeight() / 2f - yo, tileHit);
+    }
+
     /**
      * Checks if enemy sprite is colliding with any tiles on the map
      * @param s Sprite representing player
      */
     private void handleEnemyCollision(Sprite s) {
-        EnemyCollision e = new EnemyCollision(s, tmap, s.getX(), s.getY());
-        e.applyCollisionRules();
+        tileCollision.resolveEnemy(s);
         mapCollision.handleTileMapCollisions(s);
     }
 
     /**
-     * Override of the keyPressed event defined in GameCore to catch our
-     * own events
+     * Override of the key pressed handler defined in GameCore to catch our
+     * own events. Runs on the game loop at the start of a tick.
      *
-     *  @param e The event that has been generated
+     *  @param key The key code of the key that was pressed
      */
-    public void keyPressed(KeyEvent e)
+    public void handleKeyPressed(int key)
     {
-        int key = e.getKeyCode();
 
         // check if player wants to unpause
         if (key == KeyEvent.VK_ESCAPE) togglePause();
@@ -492,29 +909,32 @@ public class Game extends GameCore
             Sound s = new Sound("sounds/caw.wav", Sound.NO_EFFECT, false);
             s.start();
         }
-        if (key == KeyEvent.VK_SPACE)
+        if (key == KeyEvent.VK_SPACE && fireCooldown <= 0)
         {
+            fireCooldown = FIRE_COOLDOWN;
             player.setFire();
-            Projectile fireSprite = new Projectile(player);
+            Projectile fireSprite = firePool.acquire();
+            fireSprite.launch(player);
             // fire from middle of player sprite
             fireSprite.setY(player.getY() + player.getHeight()/4f);
+            // stop the fire at the first wall in its way
+            fireSprite.clipToMap(tmap, tileHit);
             // inherit position of fire from player
             fireSprite.show();
             fireSprite.playSound();
             // keeps tracking of current projectiles
-            fires.add(fireSprite);
+            fires.add(fireSprite, 0);
         }
     }
 
     /**
-     * Override of the keyReleased event defined in GameCore to catch our
-     * own events when a key is released
+     * Override of the key released handler defined in GameCore to catch our
+     * own events when a key is released. Runs on the game loop at the start
+     * of a tick.
      *
-     *  @param e The event that has been generated
+     *  @param key The key code of the key that was released
      */
-    public void keyReleased(KeyEvent e) {
-
-        int key = e.getKeyCode();
+    public void handleKeyReleased(int key) {
 
         // Switch statement instead of lots of ifs...
         // Need to use break to prevent fall through.
@@ -537,43 +957,6 @@ public class Game extends GameCore
         }
     }
 
-    /**
-     * Adds enemies to interact with the player
-     * @param level - Current level of player, increases number of enemies spawned
-     */
-    private void addEnemies (int level) {
-        // decide what enemies to add based on level
-        switch (level) {
-            // for first two levels spawn lots of enemies
-            case 1:
-            case 2:
-                int enemyCount = 5 * level;
-                int rangeWidth = (tmap.getPixelWidth() - screenWidth) / enemyCount;
-                for (int i = 0; i < enemyCount; i++) {
-
-                    int range = i * rangeWidth;
-                    // reduce the range by 300, ensures enemies don't spawn on player.
-                    if (i == 0) {
-                        range += 300;
-                    }
-                    Enemy e = new Enemy();
-                    e.setX(rng.nextInt(rangeWidth) + range);
-                    e.setAttackInitialX();
-                    e.show();
-                    enemies.add(e);
-                }
-                break;
-            case 3: // level 3 is a boss battle
-                boss = new Boss();
-                boss.setX(1000);
-                boss.show();
-                break;
-            default:
-                // do nothing if a level isn't specified
-                break;
-        }
-    }
-
     /**
      * Initiates the end of level sequence if necessary conditions are met
      */
@@ -590,21 +973,16 @@ public class Game extends GameCore
             player.setVelocityX(0);
             portal.playSound();
             // mute and hide any projectiles
-            for (Projectile fire : fires) {
+            for (int i = 0; i < fires.size(); i++) {
+                Projectile fire = fires.getSprite(i);
                 fire.hide();
                 fire.stopSound();
             }
 
             LEVEL = LEVEL + 1;
 
-            // add a delay using a timer without pausing the current execution thread
-            Timer t = new Timer();
-            t.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    initialiseLevel();
-                }
-            }, LEVEL_CHANGE_DURATION);
+            // count the delay down in game time so the level changes on a tick, the same way every time
+            levelChangeCountdown = LEVEL_CHANGE_DURATION;
         }
     }
 
@@ -626,24 +1004,26 @@ public class Game extends GameCore
             player.setIdle();
             player.pauseAnimation();
             portal.pauseAnimation();
-            for (Enemy e : enemies) {
+            for (int i = 0; i < enemies.size(); i++) {
+                Enemy e = enemies.getSprite(i);
                 e.pauseAnimation();
                 e.getAttack().pauseAnimation();
             }
-            for (Projectile f : fires) {
-                f.pauseAnimation();
+            for (int i = 0; i < fires.size(); i++) {
+                fires.getSprite(i).pauseAnimation();
             }
         } else {
             // if the game is paused, un-pause it
             gameState.setPause(false);
             player.playAnimation();
             portal.playAnimation();
-            for (Enemy e : enemies) {
+            for (int i = 0; i < enemies.size(); i++) {
+                Enemy e = enemies.getSprite(i);
                 e.playAnimation();
                 e.getAttack().playAnimation();
             }
-            for (Projectile f : fires) {
-                f.playAnimation();
+            for (int i = 0; i < fires.size(); i++) {
+                fires.getSprite(i).playAnimation();
             }
         }
     }
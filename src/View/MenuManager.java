@@ -21,6 +21,17 @@ public class MenuManager {
      * @param gameState - State of the game 1 - just started, 2 - paused, 3 - gameover
      */
     public void draw(Graphics2D g, int gameState) {
+        draw(g, gameState, menuItem);
+    }
+
+    /**
+     * Draws the menu with the given item selected, for drawing a menu state
+     * that was captured earlier.
+     * @param g
+     * @param gameState - State of the game 1 - just started, 2 - paused, 3 - gameover
+     * @param selected - menu item to highlight
+     */
+    public void draw(Graphics2D g, int gameState, int selected) {
         int menuItemWidth = 300;
         int menuItemHeight = 80;
         int menuItemOffset = screenHeight / 6;
@@ -30,7 +41,7 @@ public class MenuManager {
 
         // add border to selected item
         g.setColor(Color.RED);
-        g.fillRect(screenWidth/2 - (menuItemWidth+20)/2, (menuItemOffset * menuItem) - 10, menuItemWidth + 20, menuItemHeight+20);
+        g.fillRect(screenWidth/2 - (menuItemWidth+20)/2, (menuItemOffset * selected) - 10, menuItemWidth + 20, menuItemHeight+20);
 
 
         int xMenu = screenWidth/2 - menuItemWidth/2;
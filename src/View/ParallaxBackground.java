@@ -1,11 +1,11 @@
 package view;
 
 import game2D.Animation;
+import game2D.RenderSnapshot;
 import game2D.Sprite;
 
 
 import javax.swing.ImageIcon;
-import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -68,19 +68,19 @@ public class ParallaxBackground {
         parallax.add(fleet);
     }
 
-    public void draw(Graphics2D g) {
+    public void capture(RenderSnapshot s) {
         // add ship first
-        parallax.get(4).drawTransformed(g);
+        s.addSprite(parallax.get(4));
         // move mountains only horizontally, creates an affect of them being far away
-        parallax.get(3).setOffsets((int)(player.getX() * 0.1f) * -1, 0);
-        parallax.get(3).drawTransformed(g);
-        parallax.get(2).setOffsets((int)(player.getX() * 0.2f) * -1, 0);
-        parallax.get(2).drawTransformed(g);
-        parallax.get(1).setOffsets((int)(player.getX() * 0.3f) * -1, 0);
-        parallax.get(1).drawTransformed(g);
+        parallax.get(3).setOffsets((int)(player.getDrawX() * 0.1f) * -1, 0);
+        s.addSprite(parallax.get(3));
+        parallax.get(2).setOffsets((int)(player.getDrawX() * 0.2f) * -1, 0);
+        s.addSprite(parallax.get(2));
+        parallax.get(1).setOffsets((int)(player.getDrawX() * 0.3f) * -1, 0);
+        s.addSprite(parallax.get(1));
         // background is on top of buildings
-        parallax.get(0).setOffsets((int)(player.getX() * 0.35f) * -1, 0);
-        parallax.get(0).drawTransformed(g);
+        parallax.get(0).setOffsets((int)(player.getDrawX() * 0.35f) * -1, 0);
+        s.addSprite(parallax.get(0));
     }
 
     public void update(long elapsed) {
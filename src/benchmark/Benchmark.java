@@ -0,0 +1,86 @@
+package benchmark;
+
+/**
+ * A single micro benchmark. Subclasses prepare whatever they need in setup()
+ * and perform one operation per call to run(). The value returned by run()
+ * is folded into a sink so the JIT can't optimise the work away.
+ *
+ * Each measurement runs operations in batches until the requested time has
+ * passed and reports the average time per operation, so short and long
+ * operations can be timed the same way.
+ */
+public abstract class Benchmark {
+
+    // values returned by run() end up here, volatile so they always escape
+    private static volatile long sink;
+
+    private final String name;
+    // operations run between clock reads, sized so reading the clock is negligible
+    private int batch = 1;
+
+    public Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the benchmark, called once before it is warmed up.
+     *
+     * @throws Exception If the resources the benchmark needs can't be loaded
+     */
+    public void setup() throws Exception { }
+
+    /**
+     * Performs one operation.
+     *
+     * @param op The number of the operation, to vary inputs between calls
+     * @return Any value derived from the work done
+     * @throws Exception If the operation fails
+     */
+    public abstract long run(int op) throws Exception;
+
+    /**
+     * Grows the batch size until a batch takes at least 'batchNanos'.
+     */
+    void calibrate(long batchNanos) throws Exception {
+        batch = 1;
+        while (batch < (1 << 24)) {
+            long start = System.nanoTime();
+            runBatch(0);
+            if (System.nanoTime() - start >= batchNanos) {
+                return;
+            }
+            batch *= 2;
+        }
+    }
+
+    /**
+     * Runs operations for at least 'millis' milliseconds.
+     *
+     * @param millis How long to run for
+     * @return The average time per operation in nanoseconds
+     */
+    double measure(long millis) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + millis * 1000000L;
+        long ops = 0;
+        long now;
+        do {
+            runBatch((int) ops);
+            ops += batch;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (now - start) / (double) ops;
+    }
+
+    private void runBatch(int first) throws Exception {
+        long acc = 0;
+        for (int i = 0; i < batch; i++) {
+            acc += run(first + i);
+        }
+        sink += acc;
+    }
+}
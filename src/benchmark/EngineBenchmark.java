@@ -0,0 +1,641 @@
+package benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import collisiondetection.SpatialHash;
+import collisiondetection.SpriteCollision;
+import game2D.Animation;
+import game2D.EntityStore;
+import game2D.Sound;
+import game2D.Sprite;
+import game2D.SpritePool;
+import game2D.TileHit;
+import game2D.TileMap;
+import game2D.TileOverlap;
+import sprite.Projectile;
+
+/**
+ * Benchmarks for the engine's hot paths: tile map drawing, loading and
+ * queries, bounding box, shape and pixel collision and the collision broadphase, moving
+ * crowds of entities, firing projectiles, animation updates, transformed sprite drawing and sound effects.
+ * Run it from the project folder so the images, maps and sounds can be found, e.g.
+ *
+ *   java -Djava.awt.headless=true -cp out benchmark.EngineBenchmark -save before.properties
+ *   java -Djava.awt.headless=true -cp out benchmark.EngineBenchmark -baseline before.properties
+ *
+ * Options:
+ *   -warmup n      warmup iterations per benchmark (default 5)
+ *   -iterations n  measured iterations per benchmark (default 10)
+ *   -time ms       length of each iteration (default 200)
+ *   -filter text   only run benchmarks whose name contains text
+ *   -save file     write the results so a later run can be compared with them
+ *   -baseline file compare with saved results, exiting with 1 if anything is slower
+ *   -tolerance pct how much slower than the baseline counts as a regression (default 10)
+ */
+public class EngineBenchmark {
+
+    private static final int SCREEN_WIDTH = 1200;
+    private static final int SCREEN_HEIGHT = 800;
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 5;
+        int iterations = 10;
+        long time = 200;
+        double tolerance = 10;
+        String filter = null;
+        String saveFile = null;
+        String baselineFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    iterations = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "-time":
+                    time = Long.parseLong(args[++i]);
+                    break;
+                case "-filter":
+                    filter = args[++i];
+                    break;
+                case "-save":
+                    saveFile = args[++i];
+                    break;
+                case "-baseline":
+                    baselineFile = args[++i];
+                    break;
+                case "-tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        Properties baseline = null;
+        if (baselineFile != null) {
+            baseline = load(baselineFile);
+        }
+
+        System.out.printf("java %s (%s), %d processors, %d warmup + %d x %dms iterations%n",
+                System.getProperty("java.version"), System.getProperty("java.vm.name"),
+                Runtime.getRuntime().availableProcessors(), warmup, iterations, time);
+        System.out.printf("%-28s %12s %10s %12s%s%n", "benchmark", "ns/op", "error", "min",
+                baseline != null ? String.format(" %12s %8s", "baseline", "change") : "");
+
+        Properties results = new Properties();
+        boolean regressed = false;
+        for (Benchmark b : createBenchmarks()) {
+            if (filter != null && !b.getName().contains(filter)) {
+                continue;
+            }
+
+            b.setup();
+            b.calibrate(100000);
+            for (int i = 0; i < warmup; i++) {
+                b.measure(time);
+            }
+
+            double[] samples = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                samples[i] = b.measure(time);
+            }
+
+            double mean = 0;
+            double min = Double.MAX_VALUE;
+            for (double s : samples) {
+                mean += s;
+                min = Math.min(min, s);
+            }
+            mean /= iterations;
+            double variance = 0;
+            for (double s : samples) {
+                variance += (s - mean) * (s - mean);
+            }
+            double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+            results.setProperty(b.getName(), Double.toString(mean));
+            System.out.printf("%-28s %12.1f %10.1f %12.1f", b.getName(), mean, error, min);
+
+            String previous = baseline != null ? baseline.getProperty(b.getName()) : null;
+            if (previous != null) {
+                double before = Double.parseDouble(previous);
+                double change = (mean - before) / before * 100;
+                boolean slower = change > tolerance;
+                regressed |= slower;
+                System.out.printf(" %12.1f %+7.1f%%%s", before, change, slower ? "  REGRESSION" : "");
+            }
+            System.out.println();
+        }
+
+        if (saveFile != null) {
+            FileOutputStream out = new FileOutputStream(saveFile);
+            try {
+                results.store(out, "EngineBenchmark results, mean ns/op");
+            } finally {
+                out.close();
+            }
+        }
+
+        // sound and image loading can leave non-daemon threads behind
+        System.exit(regressed ? 1 : 0);
+    }
+
+    private static Properties load(String fileName) throws IOException {
+        Properties p = new Properties();
+        FileInputStream in = new FileInputStream(fileName);
+        try {
+            p.load(in);
+        } finally {
+            in.close();
+        }
+        return p;
+    }
+
+    /**
+     * Creates the benchmarks in the order they are run. Names are used to
+     * match results between runs, so they shouldn't be changed lightly.
+     */
+    private static List<Benchmark> createBenchmarks() {
+        List<Benchmark> list = new ArrayList<Benchmark>();
+
+        // Draw the 256x16 level one map to a screen sized image, scrolling across it
+        list.add(new Benchmark("tilemap.draw") {
+            private TileMap map = new TileMap();
+            private Graphics2D g;
+            private int range;
+
+            public void setup() {
+                map.loadMap("maps", "map1.txt");
+                g = screen();
+                range = map.getPixelWidth() - SCREEN_WIDTH;
+            }
+
+            public long run(int op) {
+                int xo = -((op * 13) % range);
+                map.draw(g, xo, 0);
+                return xo;
+            }
+        });
+
+        list.add(new Benchmark("tilemap.loadMap") {
+            private TileMap map = new TileMap();
+
+            public long run(int op) {
+                return map.loadMap("maps", "map1.txt") ? map.getMapWidth() : 0;
+            }
+        });
+
+        list.add(new Benchmark("tilemap.loadCompiledMap") {
+            private TileMap map = new TileMap();
+
+            public long run(int op) {
+                return map.loadMap("maps", "map1" + TileMap.COMPILED_EXTENSION) ? map.getMapWidth() : 0;
+            }
+        });
+
+        // Line of sight checks the length of the enemy attack range, across the level one map
+        list.add(new Benchmark("tilemap.raycast") {
+            private TileMap map = new TileMap();
+            private TileHit hit = new TileHit();
+            private float[] points = new float[4 * 64];
+
+            public void setup() {
+                map.loadMap("maps", "map1.txt");
+                Random rng = new Random(1);
+                for (int i = 0; i < points.length; i += 4) {
+                    points[i] = rng.nextInt(map.getPixelWidth());
+                    points[i + 1] = rng.nextInt(map.getPixelHeight());
+                    points[i + 2] = points[i] + rng.nextInt(1000) - 500;
+                    points[i + 3] = points[i + 1] + rng.nextInt(400) - 200;
+                }
+            }
+
+            public long run(int op) {
+                int i = (op & 63) * 4;
+                return map.raycast(points[i], points[i + 1], points[i + 2], points[i + 3], hit) ? hit.getCol() : -1;
+            }
+        });
+
+        // Move a player sized box a tick's worth in a spread of directions
+        list.add(new Benchmark("tilemap.sweep") {
+            private TileMap map = new TileMap();
+            private TileHit hit = new TileHit();
+            private float[] moves = new float[4 * 64];
+
+            public void setup() {
+                map.loadMap("maps", "map1.txt");
+                Random rng = new Random(1);
+                for (int i = 0; i < moves.length; i += 4) {
+                    moves[i] = rng.nextInt(map.getPixelWidth());
+                    moves[i + 1] = rng.nextInt(map.getPixelHeight());
+                    moves[i + 2] = rng.nextInt(40) - 20;
+                    moves[i + 3] = rng.nextInt(40) - 20;
+                }
+            }
+
+            public long run(int op) {
+                int i = (op & 63) * 4;
+                return map.sweep(moves[i], moves[i + 1], 100, 100, moves[i + 2], moves[i + 3], hit) ? hit.getRow() : -1;
+            }
+        });
+
+        // Find the solid tiles under a player sized box
+        list.add(new Benchmark("tilemap.overlapSolid") {
+            private TileMap map = new TileMap();
+            private TileOverlap overlap = new TileOverlap();
+
+            public void setup() {
+                map.loadMap("maps", "map1.txt");
+            }
+
+            public long run(int op) {
+                map.overlapSolid((op * 13) % map.getPixelWidth(), (op * 7) % map.getPixelHeight(), 100, 100, overlap);
+                long count = 0;
+                while (overlap.next()) {
+                    count++;
+                }
+                return count;
+            }
+        });
+
+        // Test pairs from a spread of enemy sized sprites, some of which overlap
+        list.add(new Benchmark("collision.boundingBox") {
+            private Sprite[] sprites = new Sprite[64];
+
+            public void setup() {
+                Animation anim = new Animation();
+                anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                Random rng = new Random(1);
+                for (int i = 0; i < sprites.length; i++) {
+                    sprites[i] = new Sprite(anim);
+                    sprites[i].setX(rng.nextInt(SCREEN_WIDTH));
+                    sprites[i].setY(rng.nextInt(SCREEN_HEIGHT));
+                    sprites[i].setScale(i % 3 == 0 ? 2.0f : 1.0f);
+                    sprites[i].update(0);
+                }
+            }
+
+            public long run(int op) {
+                Sprite a = sprites[op & 63];
+                Sprite b = sprites[(op >>> 6) & 63];
+                return SpriteCollision.boundingBoxCollision(a, b) ? 1 : 0;
+            }
+        });
+
+        // The same kind of pairs packed closer together and tested against their frames' collision masks
+        list.add(new Benchmark("collision.pixelMask") {
+            private Sprite[] sprites = new Sprite[64];
+
+            public void setup() {
+                Animation anim = new Animation();
+                anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                anim.buildMasks();
+                Random rng = new Random(1);
+                for (int i = 0; i < sprites.length; i++) {
+                    sprites[i] = new Sprite(anim);
+                    sprites[i].setX(rng.nextInt(SCREEN_WIDTH / 4));
+                    sprites[i].setY(rng.nextInt(SCREEN_HEIGHT / 4));
+                    sprites[i].setFlipX((i & 1) == 0);
+                    sprites[i].update(0);
+                }
+            }
+
+            public long run(int op) {
+                Sprite a = sprites[op & 63];
+                Sprite b = sprites[(op >>> 6) & 63];
+                return SpriteCollision.pixelCollision(a, b) ? 1 : 0;
+            }
+        });
+
+        // As above, but with a third of the sprites scaled up like the boss and a quarter
+        // without masks like projectiles, which are hit anywhere in their box
+        list.add(new Benchmark("collision.pixelMaskScaled") {
+            private Sprite[] sprites = new Sprite[64];
+
+            public void setup() {
+                Animation anim = new Animation();
+                anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                anim.buildMasks();
+                Animation plain = new Animation();
+                plain.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                Random rng = new Random(1);
+                for (int i = 0; i < sprites.length; i++) {
+                    sprites[i] = new Sprite(i % 4 == 3 ? plain : anim);
+                    sprites[i].setX(rng.nextInt(SCREEN_WIDTH / 4));
+                    sprites[i].setY(rng.nextInt(SCREEN_HEIGHT / 4));
+                    sprites[i].setFlipX((i & 1) == 0);
+                    sprites[i].setScale(i % 3 == 0 ? 3.0f : 1.0f);
+                    sprites[i].update(0);
+                }
+            }
+
+            public long run(int op) {
+                Sprite a = sprites[op & 63];
+                Sprite b = sprites[(op >>> 6) & 63];
+                return SpriteCollision.pixelCollision(a, b) ? 1 : 0;
+            }
+        });
+
+        // Pairs of circles and rotated boxes, most of which the bounding circle test rules out
+        list.add(new Benchmark("collision.shapes") {
+            private Sprite[] sprites = new Sprite[64];
+
+            public void setup() {
+                Animation anim = new Animation();
+                anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                Random rng = new Random(1);
+                for (int i = 0; i < sprites.length; i++) {
+                    sprites[i] = new Sprite(anim);
+                    sprites[i].setX(rng.nextInt(SCREEN_WIDTH));
+                    sprites[i].setY(rng.nextInt(SCREEN_HEIGHT));
+                    sprites[i].setScale(i % 3 == 0 ? 2.0f : 1.0f);
+                    if (i % 4 == 0) {
+                        sprites[i].setCollisionShape(Sprite.CIRCLE_SHAPE);
+                    } else {
+                        sprites[i].setRotation(rng.nextInt(360));
+                    }
+                    sprites[i].update(0);
+                }
+            }
+
+            public long run(int op) {
+                Sprite a = sprites[op & 63];
+                Sprite b = sprites[(op >>> 6) & 63];
+                return SpriteCollision.shapeCollision(a, b) ? 1 : 0;
+            }
+        });
+
+        // Fill the broadphase with a swarm of enemies and a few projectiles, then test the pairs it finds
+        list.add(new Benchmark("collision.broadphase") {
+            private SpatialHash hash = new SpatialHash(50, 50);
+            private Sprite[] enemies = new Sprite[200];
+            private Sprite[] fires = new Sprite[16];
+
+            public void setup() {
+                swarm(enemies, fires);
+            }
+
+            public long run(int op) {
+                hash.clear();
+                for (int i = 0; i < enemies.length; i++) {
+                    hash.insert(enemies[i], SpatialHash.ENEMY, i);
+                }
+                for (int i = 0; i < fires.length; i++) {
+                    hash.insert(fires[i], SpatialHash.PROJECTILE, i);
+                }
+                long hits = 0;
+                int pairs = hash.findPairs(SpatialHash.ENEMY, SpatialHash.PROJECTILE);
+                for (int i = 0; i < pairs; i++) {
+                    if (SpriteCollision.boundingBoxCollision(hash.getFirst(i), hash.getSecond(i))) {
+                        hits++;
+                    }
+                }
+                return hits;
+            }
+        });
+
+        // The same swarm tested pair by pair, as the game did before the broadphase
+        list.add(new Benchmark("collision.allPairs") {
+            private Sprite[] enemies = new Sprite[200];
+            private Sprite[] fires = new Sprite[16];
+
+            public void setup() {
+                swarm(enemies, fires);
+            }
+
+            public long run(int op) {
+                long hits = 0;
+                for (Sprite e : enemies) {
+                    for (Sprite f : fires) {
+                        if (SpriteCollision.boundingBoxCollision(e, f)) {
+                            hits++;
+                        }
+                    }
+                }
+                return hits;
+            }
+        });
+
+        // Move, animate and drop a crowd of sprites held in an entity store, as the game does its enemies
+        list.add(new Benchmark("entities.integrate") {
+            private EntityStore<Sprite> store = new EntityStore<Sprite>(4096);
+
+            public void setup() {
+                for (Sprite s : crowd(4096)) {
+                    store.add(s, EntityStore.GRAVITY);
+                }
+            }
+
+            public long run(int op) {
+                store.integrate(16);
+                for (int i = 0; i < store.size(); i++) {
+                    store.getSprite(i).update(16);
+                }
+                store.applyGravity(0.0003f, 16);
+                return store.size();
+            }
+        });
+
+        // The same crowd in a linked queue, moved one sprite at a time as the game did before the store
+        list.add(new Benchmark("entities.linkedQueue") {
+            private Queue<Sprite> queue = new ConcurrentLinkedQueue<Sprite>();
+
+            public void setup() {
+                queue.addAll(crowd(4096));
+            }
+
+            public long run(int op) {
+                long moved = 0;
+                for (Sprite s : queue) {
+                    s.update(16);
+                    s.setVelocityY(s.getVelocityY() + 0.0003f * 16);
+                    moved++;
+                }
+                return moved;
+            }
+        });
+
+        // Fire a projectile the way the game used to, loading its animation and sound every time
+        list.add(new Benchmark("projectile.create") {
+            private Sprite shooter;
+
+            public void setup() {
+                shooter = shooter();
+            }
+
+            public long run(int op) {
+                Projectile p = new Projectile();
+                p.launch(shooter);
+                return p.getWidth();
+            }
+        });
+
+        // Fire a projectile taken from a pool, and hand it back once it is done
+        list.add(new Benchmark("projectile.pooled") {
+            private Sprite shooter;
+            private SpritePool<Projectile> pool = new SpritePool<Projectile>(4) {
+                protected Projectile create() {
+                    return new Projectile();
+                }
+
+                protected void reset(Projectile p) {
+                    p.reset();
+                }
+            };
+
+            public void setup() {
+                shooter = shooter();
+                pool.prewarm(4);
+            }
+
+            public long run(int op) {
+                Projectile p = pool.acquire();
+                p.launch(shooter);
+                int width = p.getWidth();
+                pool.release(p);
+                return width;
+            }
+        });
+
+        // Step the multi-frame sheets used by the hero, enemy attacks and projectiles
+        list.add(new Benchmark("animation.update") {
+            private Animation[] anims = new Animation[3];
+
+            public void setup() {
+                for (int i = 0; i < anims.length; i++) {
+                    anims[i] = new Animation();
+                }
+                anims[0].loadAnimationFromSheet("images/character_run.png", 5, 1, 120);
+                anims[1].loadAnimationFromSheet("images/lightning.png", 8, 1, 60);
+                anims[2].loadAnimationFromSheet("images/fireanim.png", 1, 7, 60);
+            }
+
+            public long run(int op) {
+                Animation a = anims[op % 3];
+                a.update(7);
+                return a.getImage() == null ? 0 : 1;
+            }
+        });
+
+        // Draw a scaled, rotated and sometimes flipped sprite as enemies and the boss are drawn
+        list.add(new Benchmark("sprite.drawTransformed") {
+            private Sprite sprite;
+            private Graphics2D g;
+
+            public void setup() {
+                Animation anim = new Animation();
+                anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+                sprite = new Sprite(anim);
+                sprite.setScale(1.5f);
+                sprite.show();
+                sprite.update(0);
+                g = screen();
+            }
+
+            public long run(int op) {
+                sprite.setX(op % SCREEN_WIDTH);
+                sprite.setRotation(op % 360);
+                sprite.setFlipX((op & 1) == 0);
+                sprite.drawTransformed(g);
+                return op;
+            }
+        });
+
+        list.add(soundBenchmark("sound.applyEffect.none", Sound.NO_EFFECT));
+        list.add(soundBenchmark("sound.applyEffect.echo", Sound.ECHO_EFFECT));
+        list.add(soundBenchmark("sound.applyEffect.fast", Sound.FAST_EFFECT));
+
+        return list;
+    }
+
+    /**
+     * Applies 'effect' to the shortest sound the game plays.
+     */
+    private static Benchmark soundBenchmark(String name, final int effect) {
+        return new Benchmark(name) {
+            private File file = new File("sounds/caw.wav");
+            private Sound sound = new Sound(file.getPath(), effect, false);
+
+            public long run(int op) throws IOException {
+                return sound.applyEffect(file, effect).length;
+            }
+        };
+    }
+
+    /**
+     * Spreads enemy and projectile sprites over a level sized area, the same way every time.
+     */
+    private static void swarm(Sprite[] enemies, Sprite[] fires) {
+        Animation enemy = new Animation();
+        enemy.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+        Animation fire = new Animation();
+        fire.loadAnimationFromSheet("images/fire_preliminary.png", 1, 7, 60);
+        Random rng = new Random(1);
+        for (int i = 0; i < enemies.length; i++) {
+            enemies[i] = new Sprite(enemy);
+            enemies[i].setX(rng.nextInt(8000));
+            enemies[i].setY(rng.nextInt(SCREEN_HEIGHT));
+            enemies[i].show();
+        }
+        for (int i = 0; i < fires.length; i++) {
+            fires[i] = new Sprite(fire);
+            fires[i].setX(rng.nextInt(8000));
+            fires[i].setY(rng.nextInt(SCREEN_HEIGHT));
+            fires[i].show();
+        }
+    }
+
+    /**
+     * @return 'count' shown sprites sharing one animation, spread out and moving the same way every time
+     */
+    private static List<Sprite> crowd(int count) {
+        Animation anim = new Animation();
+        anim.loadAnimationFromSheet("images/enemy.png", 4, 1, 60);
+        Random rng = new Random(1);
+        List<Sprite> sprites = new ArrayList<Sprite>(count);
+        for (int i = 0; i < count; i++) {
+            Sprite s = new Sprite(anim);
+            s.setX(rng.nextInt(8000));
+            s.setY(rng.nextInt(SCREEN_HEIGHT));
+            s.setVelocityX(rng.nextFloat() * 0.2f - 0.1f);
+            s.show();
+            sprites.add(s);
+        }
+        return sprites;
+    }
+
+    /**
+     * @return A sprite for projectiles to be fired from
+     */
+    private static Sprite shooter() {
+        Animation anim = new Animation();
+        anim.loadAnimationFromSheet("images/character_idle.png", 9, 1, 120);
+        Sprite s = new Sprite(anim);
+        s.setX(SCREEN_WIDTH / 2);
+        return s;
+    }
+
+    /**
+     * @return Graphics for an offscreen image the size of the game's screen
+     */
+    private static Graphics2D screen() {
+        BufferedImage image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setClip(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return g;
+    }
+}
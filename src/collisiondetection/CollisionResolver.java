@@ -0,0 +1,145 @@
+package collisiondetection;
+
+import game2D.Sprite;
+import game2D.TileMap;
+
+/**
+ * Keeps sprites out of the solid tiles of a level's map. One resolver is
+ * made per level and reused for every sprite on every tick, so resolving
+ * collisions doesn't allocate. Each resolve method probes points around the
+ * sprite, moves the sprite back out of any solid tiles it found, and
+ * returns the points that were inside solid tiles as a mask of the
+ * constants below.
+ */
+public class CollisionResolver {
+
+    // points around a sprite that can be in a solid tile
+    public static final int BOTTOM = 1;
+    public static final int TOP = 2;
+    public static final int LEFT = 4;
+    public static final int RIGHT = 8;
+    public static final int TOP_LEFT = 16;
+    public static final int TOP_RIGHT = 32;
+    public static final int BOTTOM_LEFT = 64;
+    public static final int BOTTOM_RIGHT = 128;
+
+    private final TileMap tmap;
+    private final int tileWidth;
+    private final int tileHeight;
+
+    /**
+     * @param tmap the map of the level the sprites are on
+     */
+    public CollisionResolver(TileMap tmap) {
+        this.tmap = tmap;
+        this.tileWidth = tmap.getTileWidth();
+        this.tileHeight = tmap.getTileHeight();
+    }
+
+    /**
+     * Checks eight points around the player sprite against the solid tiles of the
+     * map and pushes the sprite out of any it is in.
+     * @param sprite the player
+     * @return a mask of the BOTTOM, TOP, TOP_LEFT, TOP_RIGHT, BOTTOM_LEFT,
+     * BOTTOM_RIGHT, LEFT and RIGHT bits for the points inside solid tiles
+     */
+    public int resolvePlayer(Sprite sprite) {
+        int xOff = (int)(((sprite.getX() * -1) / 2));
+        int yOff = tileHeight * 2;
+        int spriteX = (int)((sprite.getX() - xOff) / 1.5);
+        int spriteY = ((int)sprite.getY() - yOff) + tileHeight;
+
+        // lots of casting, but otherwise the scale can't be accounted for without
+        // modifying core game library
+        int widthOffset = (int)((double)sprite.getWidth());
+        int heightOffset = (int)((double)sprite.getHeight());
+
+        int status = 0;
+        // top center of sprite
+        if (tmap.isSolid((spriteX + widthOffset/2) / tileWidth, (spriteY) / tileHeight)) status |= TOP;
+        // bottom center of sprite
+        if (tmap.isSolid((spriteX + widthOffset/2) / tileWidth, (spriteY + heightOffset) / tileHeight)) status |= BOTTOM;
+        // A sprite's position is represented by the top left corner
+        if (tmap.isSolid((spriteX)/ tileWidth, (spriteY) / tileHeight)) status |= TOP_LEFT;
+        // account for image width by adding the sprite's width to the X position
+        if (tmap.isSolid((spriteX + widthOffset) / tileWidth, (spriteY) / tileHeight)) status |= TOP_RIGHT;
+        // account for sprite's height by adding sprite's height to the Y position
+        if (tmap.isSolid((spriteX) / tileWidth, (spriteY + heightOffset) / tileHeight)) status |= BOTTOM_LEFT;
+        // account for both sprite height and width by adding both to X and Y respectively
+        if (tmap.isSolid((spriteX + widthOffset) / tileWidth, (spriteY + heightOffset) / tileHeight)) status |= BOTTOM_RIGHT;
+        // account for left side mid point, ensures 1/2 the sprite cant make it into a block
+        if (tmap.isSolid((spriteX) / tileWidth, (spriteY + heightOffset) / tileHeight)) status |= LEFT;
+        // account for right side mid point, ensures 1/2 the sprite cant make it into a block
+        if (tmap.isSolid((spriteX + widthOffset) / tileWidth, (spriteY + heightOffset) / tileHeight)) status |= RIGHT;
+
+        if ((status & BOTTOM) != 0) {
+            sprite.setVelocityY(0.02f);
+            sprite.setY(sprite.getY() - 2f);
+        }
+        if ((status & TOP) != 0) {
+            sprite.setVelocityY(-0.02f);
+            sprite.setY(sprite.getY() + 15f);
+        }
+        if ((status & TOP_LEFT) != 0) {
+            sprite.setX(sprite.getX() + 4f);
+        }
+        if ((status & TOP_RIGHT) != 0) {
+            sprite.setX(sprite.getX() - 4f);
+        }
+        // the bottom corners and sides only push sideways when the sprite isn't standing on something
+        if ((status & BOTTOM) == 0) {
+            if ((status & BOTTOM_LEFT) != 0) {
+                sprite.setX(sprite.getX() + 4f);
+            }
+            if ((status & BOTTOM_RIGHT) != 0) {
+                sprite.setX(sprite.getX() - 4f);
+            }
+            if ((status & LEFT) != 0) {
+                sprite.setX(sprite.getX() + 4f);
+            }
+            if ((status & RIGHT) != 0) {
+                sprite.setX(sprite.getX() - 4f);
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     * Checks four points around an enemy sprite against the solid tiles of the
+     * map and pushes the sprite out of any it is in.
+     * @param sprite the enemy
+     * @return a mask of the BOTTOM, TOP, LEFT and RIGHT bits for the points inside solid tiles
+     */
+    public int resolveEnemy(Sprite sprite) {
+        int relativeX = (int)sprite.getX();
+        int relativeY = (int)sprite.getY();
+        int width = sprite.getWidth();
+        int height = sprite.getHeight();
+
+        int status = 0;
+        if (tmap.isSolid((relativeX + width/2) / tileWidth, (relativeY + height/2) / tileHeight)) status |= BOTTOM;
+        if (tmap.isSolid((relativeX + width/2) / tileWidth, (relativeY - height) / tileHeight)) status |= TOP;
+        if (tmap.isSolid((relativeX)/ tileWidth, (relativeY - height/2) / tileHeight)) status |= LEFT;
+        if (tmap.isSolid((relativeX + width)/ tileWidth, (relativeY - height/2) / tileHeight)) status |= RIGHT;
+
+        if ((status & BOTTOM) != 0) {
+            sprite.setVelocityY(0.02f);
+            sprite.setY(sprite.getY() - 2f);
+        }
+        if ((status & TOP) != 0) {
+            sprite.setVelocityY(-0.02f);
+            sprite.setY(sprite.getY() + 10f);
+        }
+        if ((status & RIGHT) != 0) {
+            sprite.setVelocityX(0.01f);
+            sprite.setX(sprite.getX() - 7f);
+        }
+        if ((status & LEFT) != 0) {
+            sprite.setVelocityX(-0.01f);
+            sprite.setX(sprite.getX() + 7f);
+        }
+
+        return status;
+    }
+}
@@ -0,0 +1,280 @@
+package collisiondetection;
+
+import game2D.Sprite;
+
+import java.util.Arrays;
+
+/**
+ * Broadphase for sprite collisions. Sprites are put into a grid of cells,
+ * normally the size of a map tile, and only sprites that share a cell are
+ * handed back as pairs worth testing properly, rather than testing every
+ * sprite against every other one.
+ *
+ * Each sprite is inserted with a layer saying what it is (player, enemy,
+ * enemy attack, projectile or pickup) so pairs can be asked for between two
+ * layers. The hash is meant to be cleared and filled again every tick; its
+ * arrays are kept between ticks so that doesn't allocate once they have
+ * grown large enough.
+ */
+public class SpatialHash {
+
+    // collision layers
+    public static final int PLAYER = 0;
+    public static final int ENEMY = 1;
+    public static final int ENEMY_ATTACK = 2;
+    public static final int PROJECTILE = 3;
+    public static final int PICKUP = 4;
+
+    private final int cellWidth;
+    private final int cellHeight;
+
+    // the sprites in the hash, by the index insert() returned
+    private int itemCount = 0;
+    private Sprite[] items = new Sprite[64];
+    private int[] itemLayers = new int[64];
+    private int[] itemTags = new int[64];
+    private int[] itemCells = new int[64 * 4];     // first column, first row, last column, last row of each sprite
+    private int[] itemMarks = new int[64];         // last search each sprite was found in, so pairs aren't repeated
+    private int mark = 0;
+
+    // open addressing table from a cell to the list of entries in it
+    private long[] cellKeys = new long[256];
+    private int[] cellHeads = new int[256];
+    private int[] cellStamps = new int[256];       // a cell is only in use if its stamp matches 'stamp'
+    private int cellCount = 0;
+    private int stamp = 1;
+
+    // a linked list of the sprites in each cell
+    private int entryCount = 0;
+    private int[] entryItems = new int[256];
+    private int[] entryNext = new int[256];
+
+    // the pairs found by the last call to findPairs()
+    private int pairCount = 0;
+    private int[] pairs = new int[128];
+
+    /**
+     * @param cellWidth width of a cell in pixels, usually the map's tile width
+     * @param cellHeight height of a cell in pixels, usually the map's tile height
+     */
+    public SpatialHash(int cellWidth, int cellHeight) {
+        if (cellWidth <= 0 || cellHeight <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    /**
+     * Empties the hash, ready for this tick's sprites.
+     */
+    public void clear() {
+        Arrays.fill(items, 0, itemCount, null);
+        itemCount = 0;
+        entryCount = 0;
+        cellCount = 0;
+        pairCount = 0;
+        stamp++;
+        if (stamp == 0) {
+            // the stamps have wrapped, so old cells could look like they are in use
+            Arrays.fill(cellStamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Adds a sprite to every cell its bounding box covers, from where it was
+     * before its last update to where it is now.
+     * @param s the sprite to add
+     * @param layer what the sprite is, one of PLAYER, ENEMY, ENEMY_ATTACK, PROJECTILE and PICKUP
+     * @param tag a number for the caller to tell the sprite apart by, such as its place in a list
+     * @return the index of the sprite in the hash
+     */
+    public int insert(Sprite s, int layer, int tag) {
+        if (itemCount == items.length) {
+            int size = itemCount * 2;
+            items = Arrays.copyOf(items, size);
+            itemLayers = Arrays.copyOf(itemLayers, size);
+            itemTags = Arrays.copyOf(itemTags, size);
+            itemCells = Arrays.copyOf(itemCells, size * 4);
+            itemMarks = Arrays.copyOf(itemMarks, size);
+        }
+
+        // the bounds used by SpriteCollision, stretched to cover where the sprite
+        // was before the last update so fast sprites meet everything they passed
+        float width = s.getWidth() * (float)s.getScale();
+        float height = s.getHeight() * (float)s.getScale();
+        float padX = 0;
+        float padY = 0;
+        if (!SpriteCollision.isUprightBox(s)) {
+            // circles and rotated boxes can reach past the box, but not past their bounding circle
+            float radius = SpriteCollision.boundingRadius(s);
+            padX = Math.max(0f, radius - width / 2);
+            padY = Math.max(0f, radius - height / 2);
+        }
+        float left = Math.min(s.getX(), s.getPreviousX()) - padX;
+        float top = Math.min(s.getY(), s.getPreviousY()) - padY;
+        float right = Math.max(s.getX(), s.getPreviousX()) + width + padX;
+        float bottom = Math.max(s.getY(), s.getPreviousY()) + height + padY;
+        int firstCol = (int)Math.floor(left / cellWidth);
+        int firstRow = (int)Math.floor(top / cellHeight);
+        int lastCol = Math.max(firstCol, (int)Math.floor(right / cellWidth));
+        int lastRow = Math.max(firstRow, (int)Math.floor(bottom / cellHeight));
+
+        int item = itemCount++;
+        items[item] = s;
+        itemLayers[item] = layer;
+        itemTags[item] = tag;
+        itemMarks[item] = mark;
+        itemCells[item * 4] = firstCol;
+        itemCells[item * 4 + 1] = firstRow;
+        itemCells[item * 4 + 2] = lastCol;
+        itemCells[item * 4 + 3] = lastRow;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int cell = findCell(col, row, true);
+                if (entryCount == entryItems.length) {
+                    entryItems = Arrays.copyOf(entryItems, entryCount * 2);
+                    entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                }
+                entryItems[entryCount] = item;
+                entryNext[entryCount] = cellHeads[cell];
+                cellHeads[cell] = entryCount++;
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Finds every pair of a sprite in 'firstLayer' and a sprite in 'secondLayer'
+     * that share a cell. Each pair is found once, in the order the first sprites
+     * were inserted. The pairs are only candidates, they still need testing with
+     * SpriteCollision.
+     * @param firstLayer layer of the first sprite of each pair
+     * @param secondLayer layer of the second sprite of each pair
+     * @return the number of pairs found
+     */
+    public int findPairs(int firstLayer, int secondLayer) {
+        pairCount = 0;
+        for (int a = 0; a < itemCount; a++) {
+            if (itemLayers[a] != firstLayer) {
+                continue;
+            }
+
+            mark++;
+            for (int row = itemCells[a * 4 + 1]; row <= itemCells[a * 4 + 3]; row++) {
+                for (int col = itemCells[a * 4]; col <= itemCells[a * 4 + 2]; col++) {
+                    int cell = findCell(col, row, false);
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int e = cellHeads[cell]; e >= 0; e = entryNext[e]) {
+                        int b = entryItems[e];
+                        if (b == a || itemLayers[b] != secondLayer || itemMarks[b] == mark) {
+                            continue;
+                        }
+                        itemMarks[b] = mark;
+                        addPair(a, b);
+                    }
+                }
+            }
+        }
+        return pairCount;
+    }
+
+    // getter for the first sprite of a pair found by findPairs()
+    public Sprite getFirst(int pair) {
+        return items[pairs[pair * 2]];
+    }
+
+    // getter for the second sprite of a pair found by findPairs()
+    public Sprite getSecond(int pair) {
+        return items[pairs[pair * 2 + 1]];
+    }
+
+    // getter for the tag the first sprite of a pair was inserted with
+    public int getFirstTag(int pair) {
+        return itemTags[pairs[pair * 2]];
+    }
+
+    // getter for the tag the second sprite of a pair was inserted with
+    public int getSecondTag(int pair) {
+        return itemTags[pairs[pair * 2 + 1]];
+    }
+
+    // getter for the number of sprites in the hash
+    public int getSpriteCount() {
+        return itemCount;
+    }
+
+    private void addPair(int a, int b) {
+        if (pairCount * 2 == pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[pairCount * 2] = a;
+        pairs[pairCount * 2 + 1] = b;
+        pairCount++;
+    }
+
+    /**
+     * Finds the slot of a cell in the table.
+     * @param create true to add the cell if it isn't there
+     * @return the slot, or -1 if the cell isn't there and 'create' is false
+     */
+    private int findCell(int col, int row, boolean create) {
+        if (create && (cellCount + 1) * 2 > cellKeys.length) {
+            grow();
+        }
+
+        long key = ((long)col << 32) | (row & 0xFFFFFFFFL);
+        int mask = cellKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (cellStamps[slot] == stamp) {
+            if (cellKeys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        cellStamps[slot] = stamp;
+        cellKeys[slot] = key;
+        cellHeads[slot] = -1;
+        cellCount++;
+        return slot;
+    }
+
+    /**
+     * Doubles the size of the cell table, keeping the cells in use.
+     */
+    private void grow() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        int[] oldStamps = cellStamps;
+
+        cellKeys = new long[oldKeys.length * 2];
+        cellHeads = new int[oldKeys.length * 2];
+        cellStamps = new int[oldKeys.length * 2];
+        int mask = cellKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] != stamp) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (cellStamps[slot] == stamp) {
+                slot = (slot + 1) & mask;
+            }
+            cellStamps[slot] = stamp;
+            cellKeys[slot] = oldKeys[i];
+            cellHeads[slot] = oldHeads[i];
+        }
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+}
@@ -1,9 +1,13 @@
 package collisiondetection;
 
+import game2D.CollisionMask;
 import game2D.Sprite;
 
 public class SpriteCollision {
 
+    // returned by sweptCollision() when the sprites didn't touch
+    public static final float NO_HIT = -1f;
+
     /**
      * Checks if two sprites are colliding.
      * @param s1 First Sprite to check
@@ -11,6 +15,238 @@ public class SpriteCollision {
      * @return Boolean representing if two sprites are overlapping
      */
     public static boolean boundingBoxCollision(Sprite s1, Sprite s2)
+    {
+        float s1width = s1.getWidth() * (float)s1.getScale();
+        float s2width = s2.getWidth() * (float)s2.getScale();
+
+        // most pairs are apart on x, so their heights aren't needed
+        if (s1.getX() >= s2.getX() + s2width ||       // check s1's left boundary is on the left of s2's right boundary
+                s1.getX() + s1width <= s2.getX())     // check s1's right boundary is on the right of s2's left boundary
+        {
+            return false;
+        }
+
+        float s1height = s1.getHeight() * (float)s1.getScale();
+        float s2height = s2.getHeight() * (float)s2.getScale();
+
+        return s1.getY() < s2.getY() + s2height &&    // check s1's upper boundary  is below s2's upper boundary
+                s1.getY() + s1height > s2.getY();     // check s1's lower boundary is above s2's lower boundary
+    }
+
+    /**
+     * Checks if the collision shapes of two sprites overlap, running the cheapest
+     * test that can answer first. Two boxes that aren't rotated only need
+     * boundingBoxCollision(). Other pairs are first checked with a circle around
+     * each sprite, and only pairs close enough for those to touch go on to the
+     * exact test for their shapes.
+     * @param s1 First Sprite to check
+     * @param s2 Second sprite to check
+     * @return Boolean representing if two sprites' shapes are overlapping
+     */
+    public static boolean shapeCollision(Sprite s1, Sprite s2)
+    {
+        boolean round1 = s1.getCollisionShape() == Sprite.CIRCLE_SHAPE;
+        boolean round2 = s2.getCollisionShape() == Sprite.CIRCLE_SHAPE;
+        double angle1 = round1 ? 0 : angle(s1);
+        double angle2 = round2 ? 0 : angle(s2);
+        if (!round1 && !round2 && angle1 == 0 && angle2 == 0) {
+            return boundingBoxCollision(s1, s2);
+        }
+
+        // from the middle of s1 to the middle of s2
+        float dx = centreX(s2) - centreX(s1);
+        float dy = centreY(s2) - centreY(s1);
+        float reach = boundingRadius(s1) + boundingRadius(s2);
+        if (dx * dx + dy * dy >= reach * reach) {
+            return false;
+        }
+
+        if (round1 && round2) {
+            return true;    // a circle's bounding circle is the circle itself
+        }
+        if (round1) {
+            return circleBoxCollision(s1, s2, angle2, -dx, -dy);
+        }
+        if (round2) {
+            return circleBoxCollision(s2, s1, angle1, dx, dy);
+        }
+        return orientedBoxCollision(s1, angle1, s2, angle2, dx, dy);
+    }
+
+    /**
+     * Checks if two sprites' shapes are colliding and, when both are boxes that
+     * aren't rotated, that their visible pixels overlap as well.
+     * @param s1 First Sprite to check
+     * @param s2 Second sprite to check
+     * @return Boolean representing if two sprites are overlapping
+     */
+    public static boolean narrowCollision(Sprite s1, Sprite s2)
+    {
+        if (!shapeCollision(s1, s2)) {
+            return false;
+        }
+        // masks are in the image's own pixels, so they only fit boxes drawn upright
+        if (!isUprightBox(s1) || !isUprightBox(s2)) {
+            return true;
+        }
+        return masksOverlap(s1, s2);
+    }
+
+    /**
+     * @return The radius of a circle around the middle of 's' that its collision shape never goes outside
+     */
+    public static float boundingRadius(Sprite s)
+    {
+        float scale = (float)s.getScale();
+        if (s.getCollisionShape() == Sprite.CIRCLE_SHAPE) {
+            return s.getRadius() * scale;
+        }
+        float width = s.getWidth();
+        float height = s.getHeight();
+        return (float)Math.sqrt(width * width + height * height) * 0.5f * scale;
+    }
+
+    /**
+     * @return true if 's' collides as a box that isn't rotated, so its bounding box is its shape
+     */
+    public static boolean isUprightBox(Sprite s)
+    {
+        return s.getCollisionShape() == Sprite.BOX_SHAPE && s.getRotation() == 0;
+    }
+
+    /**
+     * Checks a circle against a box that may be rotated, by turning the circle's
+     * middle into the box's own axes and finding the closest point of the box to it.
+     * @param dx how far the circle's middle is right of the box's middle
+     * @param dy how far the circle's middle is below the box's middle
+     */
+    private static boolean circleBoxCollision(Sprite circle, Sprite box, double angle, float dx, float dy)
+    {
+        float cos = (float)Math.cos(angle);
+        float sin = (float)Math.sin(angle);
+        float u = dx * cos + dy * sin;
+        float v = dy * cos - dx * sin;
+
+        float scale = (float)box.getScale();
+        float halfWidth = box.getWidth() * scale * 0.5f;
+        float halfHeight = box.getHeight() * scale * 0.5f;
+        float outsideX = Math.max(Math.abs(u) - halfWidth, 0f);
+        float outsideY = Math.max(Math.abs(v) - halfHeight, 0f);
+
+        float radius = circle.getRadius() * (float)circle.getScale();
+        return outsideX * outsideX + outsideY * outsideY < radius * radius;
+    }
+
+    /**
+     * Checks two rotated boxes with the separating axis test. The boxes are apart
+     * if, along the sides of either box, the gap between their middles is more
+     * than the two boxes' half lengths added together.
+     * @param dx how far s2's middle is right of s1's middle
+     * @param dy how far s2's middle is below s1's middle
+     */
+    private static boolean orientedBoxCollision(Sprite s1, double angle1, Sprite s2, double angle2, float dx, float dy)
+    {
+        float cos1 = (float)Math.cos(angle1);
+        float sin1 = (float)Math.sin(angle1);
+        float cos2 = (float)Math.cos(angle2);
+        float sin2 = (float)Math.sin(angle2);
+        float scale1 = (float)s1.getScale();
+        float scale2 = (float)s2.getScale();
+        float w1 = s1.getWidth() * scale1 * 0.5f;
+        float h1 = s1.getHeight() * scale1 * 0.5f;
+        float w2 = s2.getWidth() * scale2 * 0.5f;
+        float h2 = s2.getHeight() * scale2 * 0.5f;
+
+        // the angle between the boxes' sides, which each of the four tests below uses
+        float cos = Math.abs(cos1 * cos2 + sin1 * sin2);
+        float sin = Math.abs(sin1 * cos2 - cos1 * sin2);
+
+        // along s1's sides
+        if (Math.abs(dx * cos1 + dy * sin1) >= w1 + w2 * cos + h2 * sin) return false;
+        if (Math.abs(dy * cos1 - dx * sin1) >= h1 + w2 * sin + h2 * cos) return false;
+        // along s2's sides
+        if (Math.abs(dx * cos2 + dy * sin2) >= w2 + w1 * cos + h1 * sin) return false;
+        if (Math.abs(dy * cos2 - dx * sin2) >= h2 + w1 * sin + h1 * cos) return false;
+        return true;
+    }
+
+    /**
+     * @return The angle in radians 's' is turned by when drawn, which flipping the sprite reverses
+     */
+    private static double angle(Sprite s)
+    {
+        double angle = Math.toRadians(s.getRotation());
+        return s.getFlipX() ? -angle : angle;
+    }
+
+    private static float centreX(Sprite s)
+    {
+        return s.getX() + s.getWidth() * (float)s.getScale() * 0.5f;
+    }
+
+    private static float centreY(Sprite s)
+    {
+        return s.getY() + s.getHeight() * (float)s.getScale() * 0.5f;
+    }
+
+    /**
+     * Checks if the visible pixels of two sprites overlap. The bounding boxes are
+     * checked first, and the sprites' collision masks are only compared if they
+     * overlap. A sprite without a collision mask can be hit anywhere in its box.
+     * @param s1 First Sprite to check
+     * @param s2 Second sprite to check
+     * @return Boolean representing if two sprites' opaque pixels are overlapping
+     */
+    public static boolean pixelCollision(Sprite s1, Sprite s2)
+    {
+        return boundingBoxCollision(s1, s2) && masksOverlap(s1, s2);
+    }
+
+    /**
+     * Compares the collision masks of two sprites whose boxes overlap, each at the
+     * scale its sprite is drawn at. A sprite without a mask is compared as a solid
+     * box, so either way it is a few word operations per row.
+     */
+    private static boolean masksOverlap(Sprite s1, Sprite s2)
+    {
+        CollisionMask m1 = s1.getCollisionMask();
+        CollisionMask m2 = s2.getCollisionMask();
+        if (m1 == null && m2 == null) {
+            return true;
+        }
+
+        int x1 = (int)Math.floor(s1.getX());
+        int y1 = (int)Math.floor(s1.getY());
+        int x2 = (int)Math.floor(s2.getX());
+        int y2 = (int)Math.floor(s2.getY());
+        if (m1 == null) {
+            return m2.scaled(s2.getScale()).overlapsBox(x2, y2, s2.getFlipX(), x1, y1, scaledWidth(s1), scaledHeight(s1));
+        }
+        if (m2 == null) {
+            return m1.scaled(s1.getScale()).overlapsBox(x1, y1, s1.getFlipX(), x2, y2, scaledWidth(s2), scaledHeight(s2));
+        }
+        return m1.scaled(s1.getScale()).overlaps(x1, y1, s1.getFlipX(), m2.scaled(s2.getScale()), x2, y2, s2.getFlipX());
+    }
+
+    private static int scaledWidth(Sprite s)
+    {
+        return (int)Math.round(s.getWidth() * s.getScale());
+    }
+
+    private static int scaledHeight(Sprite s)
+    {
+        return (int)Math.round(s.getHeight() * s.getScale());
+    }
+
+    /**
+     * Checks if two sprites touched at any point while moving from their previous
+     * positions to their current ones in the last update, rather than only where
+     * they ended up. Both are taken to move in a straight line at a steady speed.
+     * @param s1 First Sprite to check
+     * @param s2 Second sprite to check
+     * @return How far through the update (0 to 1) the sprites first touched, or NO_HIT
+     */
+    public static float sweptCollision(Sprite s1, Sprite s2)
     {
         float s1width = s1.getWidth() * (float)s1.getScale();
         float s1height = s1.getHeight() * (float)s1.getScale();
@@ -18,14 +254,75 @@ public class SpriteCollision {
         float s2width = s2.getWidth() * (float)s2.getScale();
         float s2height = s2.getHeight() * (float)s2.getScale();
 
-        if (s1.getX() < s2.getX() + s2width &&       // check s1's left boundary is on the left of s2's right boundary
-                s1.getX() + s1width > s2.getX() &&   // check s1's right boundary is on the right of s2's left boundary
-                s1.getY() < s2.getY() + s2height &&  // check s1's upper boundary  is below s2's upper boundary
-                s1.getY() + s1height > s2.getY())    // check s1's lower boundary is above s2's lower boundary
-        {
-            return true;
+        // move s1 relative to s2, so s2 can be treated as standing still
+        float x1 = s1.getPreviousX();
+        float y1 = s1.getPreviousY();
+        float x2 = s2.getPreviousX();
+        float y2 = s2.getPreviousY();
+        float dx = (s1.getX() - x1) - (s2.getX() - x2);
+        float dy = (s1.getY() - y1) - (s2.getY() - y2);
+
+        // when s1 starts and stops overlapping s2 on each axis
+        float entryX, exitX;
+        if (dx > 0) {
+            entryX = (x2 - (x1 + s1width)) / dx;
+            exitX = (x2 + s2width - x1) / dx;
+        } else if (dx < 0) {
+            entryX = (x2 + s2width - x1) / dx;
+            exitX = (x2 - (x1 + s1width)) / dx;
+        } else if (x1 < x2 + s2width && x1 + s1width > x2) {
+            entryX = Float.NEGATIVE_INFINITY;
+            exitX = Float.POSITIVE_INFINITY;
+        } else {
+            return NO_HIT;
+        }
+
+        float entryY, exitY;
+        if (dy > 0) {
+            entryY = (y2 - (y1 + s1height)) / dy;
+            exitY = (y2 + s2height - y1) / dy;
+        } else if (dy < 0) {
+            entryY = (y2 + s2height - y1) / dy;
+            exitY = (y2 - (y1 + s1height)) / dy;
+        } else if (y1 < y2 + s2height && y1 + s1height > y2) {
+            entryY = Float.NEGATIVE_INFINITY;
+            exitY = Float.POSITIVE_INFINITY;
+        } else {
+            return NO_HIT;
+        }
+
+        // the sprites overlap while they overlap on both axes at once
+        float entry = Math.max(entryX, entryY);
+        float exit = Math.min(exitX, exitY);
+        if (entry >= exit || exit <= 0 || entry > 1) {
+            return NO_HIT;
         }
+        return Math.max(0f, entry);
+    }
 
-        return false;
+    /**
+     * Checks if two sprites are colliding, following the path either took in the
+     * last update if it moved far enough to pass through the other in one go.
+     * Slower sprites are checked with narrowCollision().
+     * @param s1 First Sprite to check
+     * @param s2 Second sprite to check
+     * @return Boolean representing if two sprites are, or were during the last update, overlapping
+     */
+    public static boolean movingCollision(Sprite s1, Sprite s2)
+    {
+        if (isFast(s1) || isFast(s2)) {
+            return sweptCollision(s1, s2) != NO_HIT;
+        }
+        return narrowCollision(s1, s2);
+    }
+
+    /**
+     * @return true if 's' moved more than half its size on either axis in the last update
+     */
+    private static boolean isFast(Sprite s)
+    {
+        float scale = (float)s.getScale();
+        return Math.abs(s.getX() - s.getPreviousX()) * 2 > s.getWidth() * scale
+                || Math.abs(s.getY() - s.getPreviousY()) * 2 > s.getHeight() * scale;
     }
 }
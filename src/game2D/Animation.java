@@ -1,26 +1,20 @@
 package game2D;
 
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.CropImageFilter;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
-import java.util.ArrayList;
-
-import javax.swing.ImageIcon;
 
 /**
-    The Animation class manages a series of images (frames) and
-    the amount of time to display each frame.
+    The Animation class plays an AnimationClip, a series of images
+    (frames) and the amount of time to display each frame. The clip
+    can be shared with other animations, each Animation only keeps
+    its own place in it.
     
     @author David Cairns
 */
 public class Animation {
 
-    private ArrayList<AnimFrame> frames;	// The set of animation frames
+    private AnimationClip clip;				// The frames being played
     private int currFrameIndex;				// Current frame animation is on
     private long animTime;					// Current animation time
-    private long totalDuration;				// Total animation time
     private float animSpeed = 1.0f;			// Animation speed, e.g. 2 will be twice as fast
     
     private boolean loop = true;			// True if the animation should continue looping
@@ -32,31 +26,39 @@ public class Animation {
      * Creates a new, empty Animation.
      */
     public Animation() {
-        frames = new ArrayList<AnimFrame>();
-        totalDuration = 0;
-        looped = false;
+        this(AnimationClip.EMPTY);
+    }
+
+    /**
+     * Creates an Animation that plays 'clip' from the beginning.
+     * 
+     * @param clip	The frames to play, which can be shared with other animations
+     */
+    public Animation(AnimationClip clip) {
+        this.clip = clip;
         start();
     }
     
     /**
      * Adds an image to the animation with the specified
-     * duration (time to display the image).
+     * duration (time to display the image). The frame is added
+     * to a copy of the clip, so other animations sharing the
+     * clip aren't changed.
      *   
      * @param image		The image to add
      * @param duration	The time it should be displayed for
      * 
      */
-    public synchronized void addFrame(Image image, long duration)
+    public void addFrame(Image image, long duration)
     {
-        totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+        clip = clip.withFrame(image, duration);
     }
 
 
     /**
      *  Starts this animation over from the beginning.
      */
-    public synchronized void start() {
+    public void start() {
         animTime = 0;
         currFrameIndex = 0;
         looped = false;
@@ -68,7 +70,7 @@ public class Animation {
      * 
      * @param elapsedTime	Time that has elapsed since last call
      */
-    public synchronized void update(long elapsedTime) {
+    public void update(long elapsedTime) {
     	
     	// If we are paused, don't update the animation
     	if (!play) return; 
@@ -77,10 +79,11 @@ public class Animation {
 
     	// animations with a single frame should be able to detect if they have looped as they
         // are supposed to disappear after a certain amount of time aka once they have looped.
-        if (frames.size() > 0)
+        if (clip.getFrameCount() > 0)
         {
             animTime += elapsedTime;
 
+            long totalDuration = clip.getTotalDuration();
             if (animTime >= totalDuration) 
             {
             	if (loop)
@@ -95,9 +98,9 @@ public class Animation {
             	looped = true;
             }
 
-            while (animTime > getFrame(currFrameIndex).endTime) {
-                currFrameIndex++;
-            }
+            // frames only move forward until the animation loops, even if
+            // setAnimationFrame() moved past the time
+            currFrameIndex = Math.max(currFrameIndex, clip.getFrameAt(animTime));
             
             // If we hit a stopFrame, pause the animation
             // It will be -1 if we should not stop at this point
@@ -116,27 +119,66 @@ public class Animation {
      * 
      * @return The current image that should be displayed
      */
-    public synchronized Image getImage() {
-        if (frames.size() == 0) {
+    public Image getImage() {
+        if (clip.getFrameCount() == 0) {
             return null;
         }
         else {
-            return getFrame(currFrameIndex).image;
+            return clip.getImage(currFrameIndex);
         }
     }
 
     /**
-     * Works out which frame to display, incorporating
-     * the offset.
+     * Gets the width of the current frame, which is worked out once when
+     * the frame is added rather than asking the image each time.
      * 
-     * @param i	The frame index to get
+     * @return The width of the current frame in pixels, 0 if there are no frames
+     */
+    public int getWidth() {
+        if (clip.getFrameCount() == 0) return 0;
+        return clip.getWidth(currFrameIndex);
+    }
+
+    /**
+     * Gets the height of the current frame, which is worked out once when
+     * the frame is added rather than asking the image each time.
      * 
-     * @return The animation frame corresponding to the index
+     * @return The height of the current frame in pixels, 0 if there are no frames
      */
-    private AnimFrame getFrame(int i) {
-        return (AnimFrame)frames.get(i);
+    public int getHeight() {
+        if (clip.getFrameCount() == 0) return 0;
+        return clip.getHeight(currFrameIndex);
     }
 
+    /**
+     * Switches to a copy of the clip with a collision mask for every frame, so
+     * collisions can be checked against the frames' opaque pixels. Should be
+     * called once the animation has been loaded, masks aren't made for
+     * animations that are only drawn. The masks are made once per clip and
+     * shared by every animation playing it.
+     */
+    public void buildMasks() {
+        clip = clip.withMasks();
+    }
+
+    /**
+     * @return The collision mask of the current frame, or null if buildMasks() hasn't been called
+     */
+    public CollisionMask getMask() {
+        if (clip.getFrameCount() == 0) return null;
+        return clip.getMask(currFrameIndex);
+    }
+
+    /**
+     * @return The frames this animation plays
+     */
+    public AnimationClip getClip() { return clip; }
+
+    /**
+     * @return The index of the frame currently being shown
+     */
+    public int getFrameIndex() { return currFrameIndex; }
+
     /**
      * Gets the image associated with frame 'i'. This may be
      * useful if you have loaded a set of images from a sprite
@@ -147,10 +189,9 @@ public class Animation {
      */
     public Image getFrameImage(int i) {
     	
-    	if (i < 0 || i >= frames.size()) return null;
+    	if (i < 0 || i >= clip.getFrameCount()) return null;
     	
-    	AnimFrame frame = frames.get(i);
-    	return frame.image;
+    	return clip.getImage(i);
     }
     
     /**
@@ -173,6 +214,8 @@ public class Animation {
     /**
      * Loads a complete animation from an animation sheet and adds each
      * frame in the sheet to the animation with the given frameDuration.
+     * The sheet is only cut up the first time it is loaded, every
+     * animation loading it after that shares the same frames.
      * 
      * @param fileName	The path to the file to load the animations from
      * @param rows		How many rows there are in the sheet
@@ -181,70 +224,19 @@ public class Animation {
      */
     public void loadAnimationFromSheet(String fileName, int columns, int rows, int frameDuration)
     {
-    	Image sheet = new ImageIcon(fileName).getImage();
-    	Image[] images = getImagesFromSheet(sheet, columns, rows);
+    	AnimationClip sheet = AnimationClip.fromSheet(fileName, columns, rows, frameDuration);
+    	if (clip.getFrameCount() == 0)
+    	{
+    		clip = sheet;
+    		return;
+    	}
     	
-    	for (int i=0; i<images.length; i++)
+    	for (int i=0; i<sheet.getFrameCount(); i++)
     	{
-    		addFrame(images[i], frameDuration);
+    		clip = clip.withFrame(sheet.getImage(i), frameDuration);
     	}
     }
     
-
-    
-    /**
-     * Loads a set of images from a sprite sheet so that they can be added to an animation.
-     * Courtesy of Donald Robertson.
-     * 
-     * @param sheet
-     * @param rows
-     * @param columns
-     * @return
-     */
-    private Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
-
-        // basic method to achieve split of sprite sheet
-        // overloading could be used to achieve more complex things 
-    	// such as sheets where all images are not the same dimensions
-        // deliberately 'overcommented' for clarity when integrating with
-    	// main engine
-
-        // initialise image array to return
-        Image[] split = new Image[rows*columns];
-
-        // easiest way to count as going through sprite sheet as though it is a 2d array
-        int count = 0;
-
-        // initialise width & height of split up images
-        int width = sheet.getWidth(null)/columns;
-        int height = sheet.getHeight(null)/rows;
-
-        // for each column in each row
-        for(int i = 0; i < rows; i++) 
-        {
-            for(int j = 0; j < columns; j++) 
-            {
-            	// create an image filter
-            	// top left (x) = j*width, (y) = i*height
-            	// extract rectangular region of width and height from origin x,y
-            	ImageFilter cropper = new CropImageFilter(j*width,i*height, width, height);
-            	
-                // create image source based on original sprite sheet with filter applied
-                // results in image source for cropped image being generated
-                FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
-                
-                // create a new image using generated image source and store in appropriate array element
-                split[count] = Toolkit.getDefaultToolkit().createImage(cropped);
-                        
-                // increment count to prevent elements being overwritten
-                count++;
-            }
-        }
-
-        // return array
-        return split;
-    }
-
     /**
      * Pause the animation.
      */
@@ -259,7 +251,7 @@ public class Animation {
      */
     public void pauseAt(int frame)
     {
-    	if ((frame < 0) || (frame >= frames.size())) 
+    	if ((frame < 0) || (frame >= clip.getFrameCount())) 
     		stopFrame = 0;
     	else
     		stopFrame = frame; 
@@ -290,29 +282,7 @@ public class Animation {
      */
     public void setAnimationFrame(int f)
     {
-    	if (f < 0 || f >= frames.size()) return;
+    	if (f < 0 || f >= clip.getFrameCount()) return;
     	currFrameIndex = f;
     }
-    
-    /**
-     * Private class to hold information about a given
-     * animation frame.
-     * 
-     */
-    private class AnimFrame {
-
-        Image image;	// The image for a frame.
-        long endTime;	// The time at which this frame ends.
-
-        /**
-         * Create a new frame with the given image and end time.
-         * 
-         * @param image		The image to use
-         * @param endTime	The associated end time
-         */
-        public AnimFrame(Image image, long endTime) {
-            this.image = image;
-            this.endTime = endTime;
-        }
-    }
 }
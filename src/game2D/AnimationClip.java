@@ -0,0 +1,263 @@
+package game2D;
+
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.CropImageFilter;
+import java.awt.image.FilteredImageSource;
+import java.awt.image.ImageFilter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+/**
+ * An AnimationClip is the frames of an animation: their images, sizes and
+ * the times they end at. A clip never changes once made, so one clip can be
+ * shared by every Animation that plays it, each keeping its own place in
+ * the clip. Clips loaded from a sheet are cached, so a sheet is only cut up
+ * once however many sprites use it.
+ */
+public class AnimationClip {
+
+	public static final AnimationClip EMPTY = new AnimationClip(new Image[0], new long[0], null);
+
+	private static final Map<String,AnimationClip> sheetCache = new HashMap<String,AnimationClip>();
+
+	private final Image [] images;			// The image for each frame
+	private final long [] endTimes;			// The time at which each frame ends
+	private final int [] widths;			// The size of each image, read once so it doesn't have to be asked for again
+	private final int [] heights;
+	private final CollisionMask [] masks;	// Opaque pixels of each image, or null if they haven't been made
+	private final long totalDuration;
+	private final long frameDuration;		// How long every frame lasts, or 0 if they differ
+	private AnimationClip masked;			// This clip with collision masks, made by withMasks()
+
+	/**
+	 * Creates a clip from images that have already been loaded.
+	 *
+	 * @param images The image for each frame
+	 * @param endTimes The time each frame ends at, counting from the start of the clip
+	 * @param masks The collision mask of each frame, or null
+	 */
+	private AnimationClip(Image [] images, long [] endTimes, CollisionMask [] masks)
+	{
+		this.images = images;
+		this.endTimes = endTimes;
+		this.masks = masks;
+		widths = new int[images.length];
+		heights = new int[images.length];
+		for (int i=0; i<images.length; i++)
+		{
+			widths[i] = images[i].getWidth(null);
+			heights[i] = images[i].getHeight(null);
+		}
+		totalDuration = images.length == 0 ? 0 : endTimes[images.length - 1];
+
+		long duration = images.length == 0 ? 0 : endTimes[0];
+		for (int i=1; i<images.length && duration > 0; i++)
+		{
+			if (endTimes[i] - endTimes[i - 1] != duration) duration = 0;
+		}
+		frameDuration = duration;
+	}
+
+	/**
+	 * Gets the clip for a sheet of equally sized frames, cutting the sheet
+	 * up the first time it is asked for. Safe to call from any thread.
+	 *
+	 * @param fileName The path to the sheet
+	 * @param columns How many columns there are in the sheet
+	 * @param rows How many rows there are in the sheet
+	 * @param frameDuration How long each frame is shown for
+	 * @return The clip, shared with everything else that asked for it
+	 */
+	public static AnimationClip fromSheet(String fileName, int columns, int rows, long frameDuration)
+	{
+		String key = fileName + ":" + columns + "x" + rows + "@" + frameDuration;
+		synchronized (sheetCache)
+		{
+			AnimationClip clip = sheetCache.get(key);
+			if (clip == null)
+			{
+				Image sheet = new ImageIcon(fileName).getImage();
+				Image [] frames = getImagesFromSheet(sheet, columns, rows);
+				long [] ends = new long[frames.length];
+				for (int i=0; i<frames.length; i++)
+					ends[i] = (i + 1) * frameDuration;
+				clip = new AnimationClip(frames, ends, null);
+				sheetCache.put(key, clip);
+			}
+			return clip;
+		}
+	}
+
+	/**
+	 * Makes a copy of this clip with another frame on the end.
+	 *
+	 * @param image The image to add, waited for if it is still loading
+	 * @param duration The time it should be displayed for
+	 * @return The new clip
+	 */
+	public AnimationClip withFrame(Image image, long duration)
+	{
+		// Wait for images that are still loading so the frame's size is known from the start
+		if (image.getWidth(null) < 0 || image.getHeight(null) < 0)
+			image = new ImageIcon(image).getImage();
+
+		int count = images.length;
+		Image [] moreImages = Arrays.copyOf(images, count + 1);
+		long [] moreEnds = Arrays.copyOf(endTimes, count + 1);
+		moreImages[count] = image;
+		moreEnds[count] = totalDuration + duration;
+
+		CollisionMask [] moreMasks = null;
+		if (masks != null)
+		{
+			moreMasks = Arrays.copyOf(masks, count + 1);
+			moreMasks[count] = new CollisionMask(image);
+		}
+		return new AnimationClip(moreImages, moreEnds, moreMasks);
+	}
+
+	/**
+	 * Gets this clip with a collision mask for every frame, making the masks
+	 * the first time it is asked for. Masks aren't made for clips that are
+	 * only drawn.
+	 *
+	 * @return The clip with masks, shared with everything else that asked for it
+	 */
+	public synchronized AnimationClip withMasks()
+	{
+		if (masks != null) return this;
+		if (masked == null)
+		{
+			CollisionMask [] made = new CollisionMask[images.length];
+			for (int i=0; i<images.length; i++)
+				made[i] = new CollisionMask(images[i]);
+			masked = new AnimationClip(images, endTimes, made);
+		}
+		return masked;
+	}
+
+	/**
+	 * Works out which frame is showing 'time' into the clip. A frame is shown
+	 * up to and including its end time. Clips whose frames all last as long
+	 * work it out directly, others search the end times.
+	 *
+	 * @param time The time into the clip, 0 to getTotalDuration()
+	 * @return The index of the frame, 0 if the clip has no frames
+	 */
+	public int getFrameAt(long time)
+	{
+		int last = images.length - 1;
+		if (last <= 0) return 0;
+
+		if (frameDuration > 0)
+		{
+			long frame = (time - 1) / frameDuration;
+			return (int)Math.max(0, Math.min(frame, last));
+		}
+
+		int low = 0;
+		int high = last;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (endTimes[mid] >= time)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * @return The number of frames in the clip
+	 */
+	public int getFrameCount() { return images.length; }
+
+	/**
+	 * @return The time the last frame ends at
+	 */
+	public long getTotalDuration() { return totalDuration; }
+
+	/**
+	 * @param i The index of the frame
+	 * @return The image of frame 'i'
+	 */
+	public Image getImage(int i) { return images[i]; }
+
+	/**
+	 * @param i The index of the frame
+	 * @return The width of frame 'i' in pixels
+	 */
+	public int getWidth(int i) { return widths[i]; }
+
+	/**
+	 * @param i The index of the frame
+	 * @return The height of frame 'i' in pixels
+	 */
+	public int getHeight(int i) { return heights[i]; }
+
+	/**
+	 * @param i The index of the frame
+	 * @return The collision mask of frame 'i', or null if the clip has no masks
+	 */
+	public CollisionMask getMask(int i) { return masks == null ? null : masks[i]; }
+
+	/**
+	 * Loads a set of images from a sprite sheet so that they can be added to an animation.
+	 * Courtesy of Donald Robertson.
+	 *
+	 * @param sheet
+	 * @param rows
+	 * @param columns
+	 * @return
+	 */
+	private static Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
+
+		// basic method to achieve split of sprite sheet
+		// overloading could be used to achieve more complex things
+		// such as sheets where all images are not the same dimensions
+		// deliberately 'overcommented' for clarity when integrating with
+		// main engine
+
+		// initialise image array to return
+		Image[] split = new Image[rows*columns];
+
+		// easiest way to count as going through sprite sheet as though it is a 2d array
+		int count = 0;
+
+		// initialise width & height of split up images
+		int width = sheet.getWidth(null)/columns;
+		int height = sheet.getHeight(null)/rows;
+
+		// for each column in each row
+		for(int i = 0; i < rows; i++)
+		{
+			for(int j = 0; j < columns; j++)
+			{
+				// create an image filter
+				// top left (x) = j*width, (y) = i*height
+				// extract rectangular region of width and height from origin x,y
+				ImageFilter cropper = new CropImageFilter(j*width,i*height, width, height);
+
+				// create image source based on original sprite sheet with filter applied
+				// results in image source for cropped image being generated
+				FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
+
+				// create a new image using generated image source and store in appropriate array element
+				// ImageIcon waits for the cropped image to be produced, otherwise its size is unknown
+				// (-1) until it is first drawn, and collisions would depend on when that happened
+				split[count] = new ImageIcon(Toolkit.getDefaultToolkit().createImage(cropped)).getImage();
+
+				// increment count to prevent elements being overwritten
+				count++;
+			}
+		}
+
+		// return array
+		return split;
+	}
+}
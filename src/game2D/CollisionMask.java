@@ -0,0 +1,206 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/**
+ * A CollisionMask records which pixels of an image are solid enough to be
+ * hit, one bit per pixel packed into rows of longs. Bit k of word j in a row
+ * is column j*64+k. A mirrored copy is kept for sprites that are drawn
+ * flipped. Masks are made once, when an animation is loaded, and overlaps()
+ * then compares two masks 64 pixels at a time. Sprites drawn larger or
+ * smaller use a copy of the mask at their scale, made the first time it is
+ * asked for, and a sprite without a mask is compared as a solid box.
+ */
+public class CollisionMask {
+
+	public static final int ALPHA_THRESHOLD = 128;	// Pixels at least this opaque can be hit
+
+	private int width;				// Size of the image in pixels
+	private int height;
+	private int words;				// Longs per row
+	private long [] bits;			// The mask, row-major
+	private long [] flipped;		// The mask mirrored on the x axis
+	private double scale = 1;		// The scale this mask was made at from its image
+
+	private volatile CollisionMask scaledMask;	// The last copy asked for by scaled(), kept for next time
+
+	/**
+	 * Builds the mask of 'image', which must already be loaded.
+	 *
+	 * @param image The image to take the mask from
+	 */
+	public CollisionMask(Image image)
+	{
+		width = Math.max(0, image.getWidth(null));
+		height = Math.max(0, image.getHeight(null));
+		words = (width + 63) >>> 6;
+		bits = new long[words * height];
+		flipped = new long[words * height];
+		if (width == 0 || height == 0) return;
+
+		BufferedImage argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = argb.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		int [] pixels = argb.getRGB(0, 0, width, height, null, 0, width);
+		for (int row=0; row<height; row++)
+		{
+			int base = row * words;
+			for (int col=0; col<width; col++)
+			{
+				if ((pixels[row * width + col] >>> 24) < ALPHA_THRESHOLD) continue;
+				bits[base + (col >>> 6)] |= 1L << (col & 63);
+				int mirror = width - 1 - col;
+				flipped[base + (mirror >>> 6)] |= 1L << (mirror & 63);
+			}
+		}
+	}
+
+	/**
+	 * Builds a copy of 'source' drawn at 'scale', taking each pixel from the
+	 * source pixel under its middle.
+	 */
+	private CollisionMask(CollisionMask source, double scale)
+	{
+		this.scale = scale;
+		width = (int)Math.round(source.width * scale);
+		height = (int)Math.round(source.height * scale);
+		words = (width + 63) >>> 6;
+		bits = new long[words * height];
+		flipped = new long[words * height];
+
+		for (int row=0; row<height; row++)
+		{
+			int base = row * words;
+			int sourceRow = Math.min((int)((row + 0.5) / scale), source.height - 1);
+			for (int col=0; col<width; col++)
+			{
+				int sourceCol = Math.min((int)((col + 0.5) / scale), source.width - 1);
+				if (!source.isSolid(sourceCol, sourceRow, false)) continue;
+				bits[base + (col >>> 6)] |= 1L << (col & 63);
+				int mirror = width - 1 - col;
+				flipped[base + (mirror >>> 6)] |= 1L << (mirror & 63);
+			}
+		}
+	}
+
+	/**
+	 * Gets this mask as it covers a sprite drawn at 'scale'. The copy is kept,
+	 * so asking again at the same scale, as a sprite does every frame, costs
+	 * nothing more.
+	 *
+	 * @param scale The scale the sprite is drawn at
+	 * @return The mask at that scale, this mask if the scale is 1
+	 */
+	public CollisionMask scaled(double scale)
+	{
+		if (scale == this.scale) return this;
+		CollisionMask copy = scaledMask;
+		if (copy == null || copy.scale != scale)
+		{
+			copy = new CollisionMask(this, scale);
+			scaledMask = copy;
+		}
+		return copy;
+	}
+
+	/**
+	 * @return The width of the mask in pixels
+	 */
+	public int getWidth() { return width; }
+
+	/**
+	 * @return The height of the mask in pixels
+	 */
+	public int getHeight() { return height; }
+
+	/**
+	 * @param col The column, 0 to getWidth()-1
+	 * @param row The row, 0 to getHeight()-1
+	 * @param flip True to look in the mirrored mask
+	 * @return true if the pixel at 'col,row' can be hit
+	 */
+	public boolean isSolid(int col, int row, boolean flip)
+	{
+		long [] mask = flip ? flipped : bits;
+		return (mask[row * words + (col >>> 6)] & (1L << (col & 63))) != 0;
+	}
+
+	/**
+	 * Checks if any solid pixel of this mask, with its top left corner at
+	 * 'x1,y1', lands on a solid pixel of 'other' at 'x2,y2'. Both are drawn
+	 * at the size of the mask, so scaled sprites pass in their scaled() mask.
+	 *
+	 * @param flip1 True if this mask's image is drawn flipped
+	 * @param other The mask to compare with
+	 * @param flip2 True if the other image is drawn flipped
+	 * @return true if the masks overlap
+	 */
+	public boolean overlaps(int x1, int y1, boolean flip1, CollisionMask other, int x2, int y2, boolean flip2)
+	{
+		return overlaps(x1, y1, flip1, flip2 ? other.flipped : other.bits, other.words, x2, y2, other.width, other.height);
+	}
+
+	/**
+	 * Checks if any solid pixel of this mask, with its top left corner at
+	 * 'x1,y1', lands in a box that is solid all over, such as a sprite
+	 * without a mask.
+	 *
+	 * @param flip1 True if this mask's image is drawn flipped
+	 * @param x2 The left edge of the box
+	 * @param y2 The top edge of the box
+	 * @param width2 The width of the box in pixels
+	 * @param height2 The height of the box in pixels
+	 * @return true if the mask overlaps the box
+	 */
+	public boolean overlapsBox(int x1, int y1, boolean flip1, int x2, int y2, int width2, int height2)
+	{
+		return overlaps(x1, y1, flip1, null, 0, x2, y2, width2, height2);
+	}
+
+	/**
+	 * Compares this mask with the rows of 'mask2', or with a solid box if it is null.
+	 */
+	private boolean overlaps(int x1, int y1, boolean flip1, long [] mask2, int words2, int x2, int y2, int width2, int height2)
+	{
+		int left = Math.max(x1, x2);
+		int right = Math.min(x1 + width, x2 + width2);
+		int top = Math.max(y1, y2);
+		int bottom = Math.min(y1 + height, y2 + height2);
+		if (left >= right || top >= bottom) return false;
+
+		long [] mask1 = flip1 ? flipped : bits;
+		int length = right - left;
+
+		for (int y=top; y<bottom; y++)
+		{
+			int row1 = (y - y1) * words;
+			int row2 = (y - y2) * words2;
+			for (int done=0; done<length; done+=64)
+			{
+				long a = bitsAt(mask1, row1, words, left - x1 + done);
+				long b = mask2 == null ? -1L : bitsAt(mask2, row2, words2, left - x2 + done);
+				long both = a & b;
+				if (length - done < 64) both &= (1L << (length - done)) - 1;
+				if (both != 0) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the 64 bits of a row starting at column 'col', zero past the end of the row.
+	 */
+	private static long bitsAt(long [] mask, int row, int words, int col)
+	{
+		int word = col >>> 6;
+		int shift = col & 63;
+		long value = mask[row + word] >>> shift;
+		if (shift != 0 && word + 1 < words)
+			value |= mask[row + word + 1] << (64 - shift);
+		return value;
+	}
+}
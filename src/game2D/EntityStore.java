@@ -0,0 +1,342 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * An EntityStore holds many sprites of one kind, such as a level's enemies,
+ * with their positions and velocities kept in parallel arrays rather than in
+ * each Sprite. The sprites are packed at the front of the arrays, so moving
+ * all of them is a tight loop over a few arrays, and a removed sprite's place
+ * is filled by the last one. A Sprite in a store reads and writes its
+ * position and velocity through the store, so the rest of the engine treats
+ * it like any other sprite.
+ *
+ * add() hands back a handle that stays valid until the sprite is removed,
+ * even though the sprite's place in the arrays can change. Handles carry a
+ * generation count, so a handle to a removed sprite is never mistaken for
+ * whichever sprite is given its slot next.
+ *
+ * @param <T> The kind of sprite in the store
+ */
+public class EntityStore<T extends Sprite> {
+
+	public static final int NO_HANDLE = -1;	// Never returned by add()
+
+	// Flags for each sprite
+	public static final int VISIBLE = 1;	// Moved by integrate(), follows Sprite.show() and hide()
+	public static final int GRAVITY = 2;	// Pulled down by applyGravity()
+	public static final int DEAD = 4;		// Taken out by removeDead()
+
+	private static final int SLOT_BITS = 16;	// Handles are a generation above a slot number
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	private static final int GENERATION_MASK = 0x7FFF;
+
+	// The sprites, packed at the front of the arrays
+	private int count = 0;
+	private Sprite [] sprites;
+	float [] x;					// Read and written by Sprite
+	float [] y;
+	float [] prevX;
+	float [] prevY;
+	float [] dx;
+	float [] dy;
+	int [] flags;
+	private int [] slots;		// The slot each sprite's handle points at
+
+	// Slots hand out handles, and point at where their sprite is in the arrays
+	private int slotCount = 0;
+	private int [] places;		// Place of each slot's sprite, or the next free slot if it has none
+	private int [] generations;	// Bumped each time a slot's sprite is removed
+	private int freeSlot = -1;	// The first free slot, or -1 to use a new one
+
+	/**
+	 * Creates an empty store.
+	 *
+	 * @param capacity How many sprites to make room for, the store grows past this if needed
+	 */
+	public EntityStore(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		sprites = new Sprite[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		prevX = new float[capacity];
+		prevY = new float[capacity];
+		dx = new float[capacity];
+		dy = new float[capacity];
+		flags = new int[capacity];
+		slots = new int[capacity];
+		places = new int[capacity];
+		generations = new int[capacity];
+	}
+
+	/**
+	 * Adds a sprite, which takes its position and velocity into the store
+	 * until it is removed.
+	 *
+	 * @param sprite The sprite to add, which can't already be in a store
+	 * @param extraFlags GRAVITY for sprites that should fall, or 0
+	 * @return A handle to the sprite
+	 */
+	public int add(T sprite, int extraFlags)
+	{
+		if (sprite.store != null)
+			throw new IllegalArgumentException("Sprite is already in an entity store");
+
+		int slot = freeSlot;
+		if (slot >= 0)
+			freeSlot = places[slot];
+		else
+		{
+			if (slotCount > SLOT_MASK)
+				throw new IllegalStateException("Too many sprites in entity store");
+			if (slotCount == places.length)
+			{
+				places = Arrays.copyOf(places, slotCount * 2);
+				generations = Arrays.copyOf(generations, slotCount * 2);
+			}
+			slot = slotCount++;
+			generations[slot] = 1;
+		}
+
+		if (count == sprites.length) grow();
+		int i = count++;
+		sprites[i] = sprite;
+		flags[i] = extraFlags & ~(VISIBLE | DEAD);
+		slots[i] = slot;
+		places[slot] = i;
+		sprite.attach(this, i);
+		return handle(slot);
+	}
+
+	/**
+	 * Removes the sprite 'handle' points at, if it is still in the store.
+	 * The last sprite in the store takes its place.
+	 *
+	 * @param handle A handle from add()
+	 * @return true if the sprite was removed
+	 */
+	public boolean remove(int handle)
+	{
+		int i = indexOf(handle);
+		if (i < 0) return false;
+		removeAt(i);
+		return true;
+	}
+
+	/**
+	 * Removes the sprite at place 'i', moving the last sprite into its place.
+	 *
+	 * @param i The place of the sprite, 0 to size()-1
+	 */
+	public void removeAt(int i)
+	{
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("No sprite at " + i + " in a store of " + count);
+
+		Sprite sprite = sprites[i];
+		sprite.detach();
+
+		// the slot can be used again, and its old handles no longer work
+		int slot = slots[i];
+		generations[slot] = generations[slot] == GENERATION_MASK ? 1 : generations[slot] + 1;
+		places[slot] = freeSlot;
+		freeSlot = slot;
+
+		int last = --count;
+		if (i != last)
+		{
+			sprites[i] = sprites[last];
+			x[i] = x[last];
+			y[i] = y[last];
+			prevX[i] = prevX[last];
+			prevY[i] = prevY[last];
+			dx[i] = dx[last];
+			dy[i] = dy[last];
+			flags[i] = flags[last];
+			slots[i] = slots[last];
+			places[slots[i]] = i;
+			sprites[i].index = i;
+		}
+		sprites[last] = null;
+	}
+
+	/**
+	 * Marks the sprite at place 'i' as dead, so it is removed by the next
+	 * call to removeDead() rather than straight away.
+	 *
+	 * @param i The place of the sprite, 0 to size()-1
+	 */
+	public void kill(int i)
+	{
+		flags[i] |= DEAD;
+	}
+
+	/**
+	 * Removes every sprite marked by kill().
+	 *
+	 * @return How many sprites were removed
+	 */
+	public int removeDead()
+	{
+		return removeDead(null);
+	}
+
+	/**
+	 * Removes every sprite marked by kill(), handing each back to 'pool'
+	 * once it is out of the store.
+	 *
+	 * @param pool The pool the sprites came from, or null to just remove them
+	 * @return How many sprites were removed
+	 */
+	public int removeDead(SpritePool<? super T> pool)
+	{
+		int removed = 0;
+		// from the end, so each sprite moved into a gap has already been looked at
+		for (int i=count-1; i>=0; i--)
+		{
+			if ((flags[i] & DEAD) == 0) continue;
+			T sprite = getSprite(i);
+			removeAt(i);
+			if (pool != null) pool.release(sprite);
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes every sprite.
+	 */
+	public void clear()
+	{
+		clear(null);
+	}
+
+	/**
+	 * Removes every sprite, handing each back to 'pool' once it is out of the store.
+	 *
+	 * @param pool The pool the sprites came from, or null to just remove them
+	 */
+	public void clear(SpritePool<? super T> pool)
+	{
+		while (count > 0)
+		{
+			T sprite = getSprite(count - 1);
+			removeAt(count - 1);
+			if (pool != null) pool.release(sprite);
+		}
+	}
+
+	/**
+	 * Moves every visible sprite by its velocity, remembering where each
+	 * sprite was for drawing between ticks. Sprite.update() leaves the
+	 * movement of stored sprites to this.
+	 *
+	 * @param elapsedTime The time that has elapsed since the last call
+	 */
+	public void integrate(long elapsedTime)
+	{
+		for (int i=0; i<count; i++)
+		{
+			prevX[i] = x[i];
+			prevY[i] = y[i];
+			if ((flags[i] & VISIBLE) == 0) continue;
+			x[i] += dx[i] * elapsedTime;
+			y[i] += dy[i] * elapsedTime;
+		}
+	}
+
+	/**
+	 * Speeds up the fall of every sprite added with the GRAVITY flag.
+	 *
+	 * @param gravity Pixels per millisecond added to the vertical velocity each millisecond
+	 * @param elapsedTime The time that has elapsed since the last call
+	 */
+	public void applyGravity(float gravity, long elapsedTime)
+	{
+		for (int i=0; i<count; i++)
+		{
+			if ((flags[i] & GRAVITY) != 0)
+				dy[i] += gravity * elapsedTime;
+		}
+	}
+
+	/**
+	 * @return The number of sprites in the store
+	 */
+	public int size() { return count; }
+
+	/**
+	 * @param i The place of the sprite, 0 to size()-1
+	 * @return The sprite at place 'i'
+	 */
+	@SuppressWarnings("unchecked")
+	public T getSprite(int i)
+	{
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("No sprite at " + i + " in a store of " + count);
+		return (T)sprites[i];
+	}
+
+	/**
+	 * @param i The place of the sprite, 0 to size()-1
+	 * @return A handle to the sprite at place 'i'
+	 */
+	public int getHandle(int i)
+	{
+		return handle(slots[i]);
+	}
+
+	/**
+	 * @param handle A handle from add()
+	 * @return The sprite's place in the store, or -1 if it has been removed
+	 */
+	public int indexOf(int handle)
+	{
+		if (handle < 0) return -1;
+		int slot = handle & SLOT_MASK;
+		if (slot >= slotCount || generations[slot] != handle >>> SLOT_BITS) return -1;
+		return places[slot];
+	}
+
+	/**
+	 * @param handle A handle from add()
+	 * @return The sprite, or null if it has been removed
+	 */
+	public T get(int handle)
+	{
+		int i = indexOf(handle);
+		return i < 0 ? null : getSprite(i);
+	}
+
+	/**
+	 * @param handle A handle from add()
+	 * @return true if the sprite is still in the store
+	 */
+	public boolean contains(int handle)
+	{
+		return indexOf(handle) >= 0;
+	}
+
+	private int handle(int slot)
+	{
+		return (generations[slot] << SLOT_BITS) | slot;
+	}
+
+	/**
+	 * Doubles the room for sprites.
+	 */
+	private void grow()
+	{
+		int size = sprites.length * 2;
+		sprites = Arrays.copyOf(sprites, size);
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		prevX = Arrays.copyOf(prevX, size);
+		prevY = Arrays.copyOf(prevY, size);
+		dx = Arrays.copyOf(dx, size);
+		dy = Arrays.copyOf(dy, size);
+		flags = Arrays.copyOf(flags, size);
+		slots = Arrays.copyOf(slots, size);
+	}
+}
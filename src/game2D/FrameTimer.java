@@ -0,0 +1,297 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * FrameTimer records how long each phase of a frame takes (update, draw,
+ * present, sleep overshoot and any phases a game registers itself) in
+ * nanosecond histograms. Timings are summed over a frame and recorded once
+ * per frame when endFrame() is called, then percentiles are reported over
+ * rolling windows of frames so that stutter shows up rather than being
+ * averaged away.
+ *
+ * Histograms use log-linear buckets (32 per power of two, so values are
+ * reported to within about 3%) and are allocated when a phase is added,
+ * so recording a frame never allocates.
+ */
+public class FrameTimer {
+
+	public static final int FRAME = 0;				// Time between consecutive endFrame() calls
+	public static final int UPDATE = 1;				// Time spent in update()
+	public static final int DRAW = 2;				// Time spent in draw()
+	public static final int PRESENT = 3;			// Time spent getting the frame onto the display
+	public static final int SLEEP_OVERSHOOT = 4;	// Time slept beyond what was asked for
+
+	private static final int MAX_PHASES = 32;
+	private static final int SUB_BITS = 5;						// log2 of buckets per power of two
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;					// Largest value tracked is 2^41ns, about 36 minutes
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+	private String[] names = new String[MAX_PHASES];
+	private int phaseCount = 0;
+
+	private int[][] filling = new int[MAX_PHASES][];		// Histograms for the window being recorded
+	private int[][] complete = new int[MAX_PHASES][];		// Histograms for the last full window
+	private long[] fillingMax = new long[MAX_PHASES];
+	private long[] completeMax = new long[MAX_PHASES];
+	private long[] fillingSum = new long[MAX_PHASES];
+	private long[] completeSum = new long[MAX_PHASES];
+	private int[] fillingCount = new int[MAX_PHASES];
+	private int[] completeCount = new int[MAX_PHASES];
+
+	private long[] started = new long[MAX_PHASES];		// When begin() was last called for each phase
+	private long[] pending = new long[MAX_PHASES];		// Time accumulated for each phase this frame
+	private boolean[] touched = new boolean[MAX_PHASES];	// Whether a phase ran at all this frame
+
+	private int windowFrames = 120;		// Number of frames in a window
+	private int framesInWindow = 0;		// Frames recorded into the current window
+	private long lastFrame = 0;			// Time endFrame() was last called
+
+	/**
+	 * Create a timer with the standard engine phases.
+	 */
+	public FrameTimer()
+	{
+		addPhase("frame");
+		addPhase("update");
+		addPhase("draw");
+		addPhase("present");
+		addPhase("sleep overshoot");
+	}
+
+	/**
+	 * Registers a named phase to be timed, such as a part of a game's update.
+	 * Adding a name that already exists returns the existing phase.
+	 *
+	 * @param name The name to report the phase under
+	 * @return The id to pass to begin(), end() and the query methods
+	 */
+	public int addPhase(String name)
+	{
+		for (int i=0; i<phaseCount; i++)
+			if (names[i].equals(name)) return i;
+
+		if (phaseCount == MAX_PHASES)
+			throw new IllegalStateException("Too many frame timer phases, can't add '" + name + "'");
+
+		int phase = phaseCount++;
+		names[phase] = name;
+		filling[phase] = new int[BUCKETS];
+		complete[phase] = new int[BUCKETS];
+		return phase;
+	}
+
+	/**
+	 * Sets the number of frames in each reporting window. Takes effect at
+	 * the end of the current window.
+	 *
+	 * @param frames The number of frames per window
+	 */
+	public void setWindow(int frames)
+	{
+		windowFrames = Math.max(1, frames);
+	}
+
+	/**
+	 * Marks the start of a phase. Different phases may be nested.
+	 *
+	 * @param phase The phase that is starting
+	 */
+	public void begin(int phase)
+	{
+		started[phase] = System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of a phase started with begin(). A phase may run several
+	 * times in a frame, in which case the times are added together.
+	 *
+	 * @param phase The phase that has finished
+	 */
+	public void end(int phase)
+	{
+		add(phase, System.nanoTime() - started[phase]);
+	}
+
+	/**
+	 * Adds time that was measured elsewhere to a phase for this frame.
+	 *
+	 * @param phase The phase to add time to
+	 * @param nanos The time to add in nanoseconds
+	 */
+	public void add(int phase, long nanos)
+	{
+		pending[phase] += nanos;
+		touched[phase] = true;
+	}
+
+	/**
+	 * Records the time accumulated by each phase this frame into its
+	 * histogram, along with the time since the previous call as the frame
+	 * time. Phases that did not run this frame are not recorded.
+	 */
+	public void endFrame()
+	{
+		long now = System.nanoTime();
+		if (lastFrame != 0) add(FRAME, now - lastFrame);
+		lastFrame = now;
+
+		for (int p=0; p<phaseCount; p++)
+		{
+			if (!touched[p]) continue;
+			record(p, pending[p]);
+			pending[p] = 0;
+			touched[p] = false;
+		}
+
+		framesInWindow++;
+		if (framesInWindow >= windowFrames)
+			rollWindow();
+	}
+
+	/**
+	 * Adds a single sample to the histogram for 'phase'.
+	 */
+	private void record(int phase, long nanos)
+	{
+		if (nanos < 0) nanos = 0;
+		filling[phase][bucket(nanos)]++;
+		fillingCount[phase]++;
+		fillingSum[phase] += nanos;
+		if (nanos > fillingMax[phase]) fillingMax[phase] = nanos;
+	}
+
+	/**
+	 * Makes the window being recorded the complete window and starts
+	 * recording a new one, reusing the old histograms.
+	 */
+	private void rollWindow()
+	{
+		int[][] swap = complete;
+		complete = filling;
+		filling = swap;
+
+		for (int p=0; p<phaseCount; p++)
+		{
+			Arrays.fill(filling[p], 0);
+			completeMax[p] = fillingMax[p];
+			completeSum[p] = fillingSum[p];
+			completeCount[p] = fillingCount[p];
+			fillingMax[p] = 0;
+			fillingSum[p] = 0;
+			fillingCount[p] = 0;
+		}
+		framesInWindow = 0;
+	}
+
+	/**
+	 * Works out which histogram bucket a value falls into.
+	 */
+	private static int bucket(long value)
+	{
+		if (value < 2 * SUB_COUNT) return (int)value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+
+		// The top SUB_BITS+1 bits of the value pick the bucket within its power of two
+		int mantissa = (int)(value >>> (exponent - SUB_BITS));
+		return (exponent - SUB_BITS) * SUB_COUNT + mantissa;
+	}
+
+	/**
+	 * @return The largest value that falls into 'bucket'
+	 */
+	private static long bucketLimit(int bucket)
+	{
+		if (bucket < 2 * SUB_COUNT) return bucket;
+
+		int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+		long mantissa = bucket % SUB_COUNT + SUB_COUNT;
+		return ((mantissa + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Gets a percentile of a phase's time over the last complete window.
+	 *
+	 * @param phase The phase to query
+	 * @param percentile The percentile to get, e.g. 99 for p99
+	 * @return The time in nanoseconds, or 0 if the phase has no samples
+	 */
+	public long getPercentile(int phase, double percentile)
+	{
+		int count = completeCount[phase];
+		if (count == 0) return 0;
+
+		long target = (long)Math.ceil(count * percentile / 100.0);
+		if (target < 1) target = 1;
+
+		int[] histogram = complete[phase];
+		long seen = 0;
+		for (int b=0; b<BUCKETS; b++)
+		{
+			seen += histogram[b];
+			if (seen >= target)
+				return Math.min(bucketLimit(b), completeMax[phase]);
+		}
+		return completeMax[phase];
+	}
+
+	/**
+	 * @return The longest time in nanoseconds for 'phase' in the last complete window
+	 */
+	public long getMax(int phase) { return completeMax[phase]; }
+
+	/**
+	 * @return The mean time in nanoseconds for 'phase' in the last complete window
+	 */
+	public long getMean(int phase)
+	{
+		if (completeCount[phase] == 0) return 0;
+		return completeSum[phase] / completeCount[phase];
+	}
+
+	/**
+	 * @return The number of frames 'phase' ran in during the last complete window
+	 */
+	public int getCount(int phase) { return completeCount[phase]; }
+
+	/**
+	 * @return The name 'phase' was added with
+	 */
+	public String getName(int phase) { return names[phase]; }
+
+	/**
+	 * @return The number of phases being timed
+	 */
+	public int getPhaseCount() { return phaseCount; }
+
+	/**
+	 * @return The frames per second over the last complete window
+	 */
+	public float getFPS()
+	{
+		long mean = getMean(FRAME);
+		if (mean <= 0) return 0.0f;
+		return 1000000000.0f / mean;
+	}
+
+	/**
+	 * Generate a table of the last complete window so it can be printed.
+	 * Times are in milliseconds.
+	 */
+	public String toString()
+	{
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("%-16s %7s %8s %8s %8s %8s%n", "phase", "frames", "p50", "p95", "p99", "max"));
+		for (int p=0; p<phaseCount; p++)
+		{
+			if (completeCount[p] == 0) continue;
+			s.append(String.format("%-16s %7d %8.3f %8.3f %8.3f %8.3f%n", names[p], completeCount[p],
+					getPercentile(p, 50) / 1000000.0, getPercentile(p, 95) / 1000000.0,
+					getPercentile(p, 99) / 1000000.0, getMax(p) / 1000000.0));
+		}
+		return s.toString();
+	}
+}
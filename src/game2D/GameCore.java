@@ -3,7 +3,7 @@ package game2D;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
+import java.awt.image.BufferStrategy;
 
 import javax.swing.*;
 
@@ -14,26 +14,31 @@ import javax.swing.*;
  * Core Game class that implements default game loop. Subclasses should
  * implement the draw() method and override the update method.
 */
-public abstract class GameCore extends JFrame implements KeyListener {
-
-	private static final long serialVersionUID = 1L;
+public abstract class GameCore implements KeyListener {
 
 	protected static final int FONT_SIZE = 12;
     
     private ScreenManager screen;		// A screen manager to use
     private DisplayMode displayMode;	// The required display mode
 
-    private boolean isRunning;			// true if the game loop should continue
+    private volatile boolean isRunning;	// true if the game loop should continue
     private boolean fullScreen;			// true if the game is in full screen mode
-    private	long startTime;				// The time the game started
+    private boolean headless;			// true if the game is driven by a HeadlessRunner
+    private int headlessWidth;			// Size of the offscreen image in headless mode
+    private int headlessHeight;
     private long currTime;				// The current time
     private long elapsedTime;			// Elapsed time since previous check
     
-    private long frames;				// Used to calculate frames per second (FPS)
+    private FrameTimer timer = new FrameTimer();	// Timings of each phase of recent frames
+    private FrameTimer renderTimer = timer;			// Timings of drawing, separate when drawing has its own thread
+    private InputQueue input = new InputQueue(256);	// Key events waiting for the next tick
     private Window win;					// Window object used to handle the display
-    
-    private BufferedImage buffer=null;	// buffer is used as a buffered image for drawing offscreen
-    private Graphics2D bg=null;    		// The virtual Graphics2D device associated with the above image
+
+    private boolean fixedTimestep;		// true if update() is called at a fixed tick rate
+    private long tickMillis = 10;		// Length of a fixed simulation tick in milliseconds
+    private int maxCatchUpTicks = 5;	// Most ticks run back to back before the backlog is dropped
+    private boolean threadedRendering;	// true if drawing happens on its own thread
+    private InputRecorder recorder;		// Records each tick's input so the session can be replayed, or null
     
     
     /**
@@ -45,8 +50,6 @@ public abstract class GameCore extends JFrame implements KeyListener {
     	isRunning = false;
     	fullScreen = false;
     	
-        frames = 1;
-        startTime = 1;
         currTime = 1;
     }
 
@@ -99,16 +102,41 @@ public abstract class GameCore extends JFrame implements KeyListener {
     	}
     	else
     	{
-    		win = this;
+    		JFrame frame = new JFrame();
+    		// We draw every frame ourselves, so ignore paint requests from the OS
+    		frame.setIgnoreRepaint(true);
+    		win = frame;
             win.setSize(xres,yres);
     	}
 
         setVisible(true);
+
+        // Full screen mode has already set up page flipping
+        if (!fullScreen) win.createBufferStrategy(2);
         
         win.addKeyListener(this);
         win.setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
     }
     
+    /**
+     * Initialisation used when the game is driven without a display. No
+     * window is created and getWidth()/getHeight() report the size of the
+     * offscreen image being drawn to.
+     * 
+     * @param xres	Width in pixels of the offscreen image
+     * @param yres	Height in pixels of the offscreen image
+     */
+    void initHeadless(int xres, int yres) {
+    	headless = true;
+    	headlessWidth = xres;
+    	headlessHeight = yres;
+    }
+
+    /**
+     * @return True if the game is running without a display
+     */
+    public boolean isHeadless() { return headless; }
+    
     /**
      * Shows and hides the main game window
      * 
@@ -117,9 +145,11 @@ public abstract class GameCore extends JFrame implements KeyListener {
      */
     public void setVisible(boolean show)
     {
+    	if (headless) return;
+
     	if (!fullScreen)
     	{
-    		super.setVisible(show);
+    		win.setVisible(show);
     		return;
     	}
 
@@ -135,6 +165,65 @@ public abstract class GameCore extends JFrame implements KeyListener {
     	}
     }
 
+    /**
+     * Switches the game loop between a variable time step, where update() is
+     * given the wall clock time since the previous frame, and a fixed time
+     * step, where update() is always given the same tick length and is called
+     * as many times as needed to keep up with the wall clock. In fixed mode
+     * rendering is not tied to the tick rate and draw(g, alpha) is told how
+     * far the wall clock is between the last tick and the next one.
+     * 
+     * @param fixed True to use a fixed time step
+     * @param ticksPerSecond The number of update() calls per second in fixed mode.
+     * The tick length is rounded to whole milliseconds, e.g. 60 gives 17ms ticks.
+     */
+    public void setFixedTimestep(boolean fixed, int ticksPerSecond)
+    {
+    	if (ticksPerSecond <= 0)
+    		throw new IllegalArgumentException("Tick rate must be positive: " + ticksPerSecond);
+
+    	fixedTimestep = fixed;
+    	tickMillis = Math.max(1, Math.round(1000.0f / ticksPerSecond));
+    }
+
+    /**
+     * Limits how many fixed ticks may be run before a frame is drawn. If the
+     * simulation falls further behind than this (e.g. after the window was
+     * dragged or the machine stalled) the remaining backlog is dropped so the
+     * game slows down rather than spiralling.
+     * 
+     * @param ticks The maximum number of ticks per frame, at least 1
+     */
+    public void setMaxCatchUpTicks(int ticks)
+    {
+    	maxCatchUpTicks = Math.max(1, ticks);
+    }
+
+    /**
+     * Switches drawing onto a separate render thread. After each update the
+     * game loop calls capture() to copy what should be drawn into a
+     * RenderSnapshot, and the render thread draws the newest snapshot with
+     * draw(g, snapshot) while the next update runs. Games must override
+     * capture() and draw(g, snapshot) to use this mode. Must be set before
+     * the game loop starts.
+     * 
+     * @param threaded True to draw on a separate thread
+     */
+    public void setThreadedRendering(boolean threaded)
+    {
+    	threadedRendering = threaded;
+    }
+
+    /**
+     * @return True if the game loop is running with a fixed time step
+     */
+    public boolean isFixedTimestep() { return fixedTimestep; }
+
+    /**
+     * @return The length of a fixed simulation tick in milliseconds
+     */
+    public long getTickMillis() { return tickMillis; }
+
     /**
      * Loads an image with the given 'fileName'
      * 
@@ -150,66 +239,235 @@ public abstract class GameCore extends JFrame implements KeyListener {
      *  Runs through the game loop until stop() is called. 
      *  
      *  This method will call your update() method followed by your draw()
-     *  method to display the updated game state. It implements double buffering
-     *  for both full screen and windowed mode.
+     *  method to display the updated game state. It uses a BufferStrategy
+     *  for both full screen and windowed mode. See setFixedTimestep() for how
+     *  update() is scheduled and setThreadedRendering() for drawing on a
+     *  separate thread.
      */
     public void gameLoop() {
-        startTime = System.currentTimeMillis();
-        currTime = startTime;
-        frames = 1;		// Keep a note of frames for performance measure
+        currTime = System.currentTimeMillis();
 
-        Graphics2D g;
         isRunning = true;
 
-        // Create our own buffer
-        buffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        bg = (Graphics2D)buffer.createGraphics();
-        bg.setClip(0, 0, getWidth(), getHeight());
+        SnapshotBuffer<RenderSnapshot> snapshots = null;
+        Thread renderThread = null;
+        if (threadedRendering)
+        {
+        	// Drawing is timed separately as it no longer happens once per loop
+        	renderTimer = new FrameTimer();
+        	snapshots = new SnapshotBuffer<RenderSnapshot>(createSnapshot(), createSnapshot(),
+        			createSnapshot(), createSnapshot());
+        	renderThread = startRenderThread(snapshots);
+        	// Snapshots hold the positions reached by the last tick
+        	Sprite.setInterpolation(1.0f);
+        }
+
+        long tickNanos = tickMillis * 1000000L;
+        long lastTime = System.nanoTime();
+        long accumulator = 0;			// Wall clock time not yet simulated in fixed mode
+        float alpha = 1.0f;				// How far between the last two ticks to draw
 
         while (isRunning) {
             elapsedTime = System.currentTimeMillis() - currTime;
             currTime += elapsedTime;
 
-            // Call the overridden update method
-            update(elapsedTime);
-
-	        // Get the current graphics device 	            
-            g = (Graphics2D)win.getGraphics();
-
-
-	        if (g != null)
-	        {
- 	            if (fullScreen)
-	            {
-	            	// Set the clipping (drawable) region to be the screen bounds
-	            	g.setClip(0, 0, getWidth(), getHeight());
-		            draw(g);
-	            	screen.update();
-	            	g.dispose();
-	            }
-	            else
-	            {
-	            	draw(bg);
-	            	g.drawImage(buffer,null,0,0);
- 	            }
+            int ticks = 0;
+            if (fixedTimestep)
+            {
+            	long now = System.nanoTime();
+            	accumulator += now - lastTime;
+            	lastTime = now;
+
+            	while (accumulator >= tickNanos && ticks < maxCatchUpTicks)
+            	{
+            		timer.begin(FrameTimer.UPDATE);
+            		tick(tickMillis);
+            		timer.end(FrameTimer.UPDATE);
+            		accumulator -= tickNanos;
+            		ticks++;
+            	}
+            	// Too far behind to catch up, drop the backlog
+            	if (accumulator >= tickNanos) accumulator %= tickNanos;
+
+            	alpha = (float)accumulator / tickNanos;
             }
             else
             {
-            	System.err.println("Null reference for graphics");
-            	break;
+            	// Call the overridden update method
+            	timer.begin(FrameTimer.UPDATE);
+            	tick(elapsedTime);
+            	timer.end(FrameTimer.UPDATE);
+            	ticks = 1;
             }
-            
-            frames++;
 
-            // take a nap
-            try {
-                Thread.sleep(10);
+            if (snapshots != null)
+            {
+            	// Hand what the last tick produced to the render thread
+            	if (ticks > 0)
+            	{
+            		RenderSnapshot snapshot = snapshots.getWriteBuffer();
+            		capture(snapshot);
+            		snapshot.setTime(System.nanoTime() - accumulator);
+            		snapshots.publish();
+            	}
             }
-            catch (InterruptedException ex) { }
+            else if (!render(null, alpha)) break;
+
+            // take a nap, in fixed mode just long enough to let other threads in
+            nap(fixedTimestep ? 1 : 10, timer);
+            timer.endFrame();
         }
+
+        if (renderThread != null)
+        {
+        	try {
+        		renderThread.join();
+        	}
+        	catch (InterruptedException ex) { }
+        }
+        if (recorder != null) recorder.finish(describeState());
         System.exit(0);
     }
 
+    /**
+     * Runs one simulation step: key events that arrived since the last step
+     * are handed to handleKeyPressed() and handleKeyReleased(), then update()
+     * is called. Input is always applied at the start of a tick on the game
+     * loop's thread, never part way through an update, which is what lets
+     * a recording of the events and elapsed times replay the game exactly.
+     * 
+     * @param elapsed The elapsed time to pass to update()
+     */
+    void tick(long elapsed)
+    {
+    	while (input.poll())
+    	{
+    		if (recorder != null) recorder.recordKey(input.getType(), input.getKeyCode());
+    		if (input.getType() == InputQueue.KEY_PRESSED)
+    			handleKeyPressed(input.getKeyCode());
+    		else
+    			handleKeyReleased(input.getKeyCode());
+    	}
+    	update(elapsed);
+    	if (recorder != null) recorder.endTick(elapsed);
+    }
+
+    /**
+     * Starts a thread that draws the newest snapshot published by the game
+     * loop, interpolating between it and the one before, until the game stops.
+     * 
+     * @param snapshots The buffer the game loop publishes snapshots to
+     * @return The thread that was started
+     */
+    private Thread startRenderThread(final SnapshotBuffer<RenderSnapshot> snapshots)
+    {
+    	Thread t = new Thread("Render") {
+    		public void run() {
+    			while (isRunning)
+    			{
+    				snapshots.acquire();
+    				RenderSnapshot current = snapshots.getCurrent();
+    				if (current == null)
+    				{
+    					nap(1, renderTimer);
+    					continue;
+    				}
+
+    				// Show the frame one snapshot behind, so there is always
+    				// a newer position to move towards
+    				RenderSnapshot previous = snapshots.getPrevious();
+    				float alpha = 1.0f;
+    				if (previous != null)
+    				{
+    					long span = current.getTime() - previous.getTime();
+    					if (span > 0)
+    						alpha = Math.min(1.0f, Math.max(0.0f, (float)(System.nanoTime() - current.getTime()) / span));
+    				}
+    				current.interpolateFrom(previous, alpha);
+
+    				if (!render(current, alpha))
+    				{
+    					isRunning = false;
+    					break;
+    				}
+
+    				nap(1, renderTimer);
+    				renderTimer.endFrame();
+    			}
+    		}
+    	};
+    	t.start();
+    	return t;
+    }
+
+    /**
+     * Sleeps for 'millis' and records any oversleep as sleep overshoot in 't'.
+     */
+    private void nap(long millis, FrameTimer t)
+    {
+        long sleepStart = System.nanoTime();
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) { }
+        t.add(FrameTimer.SLEEP_OVERSHOOT, System.nanoTime() - sleepStart - millis * 1000000L);
+    }
+
+    /**
+     * Draws the current game state to the display. Both windowed and full
+     * screen mode draw straight into the back buffer of the window's
+     * BufferStrategy and flip it, redrawing if the back buffer was lost.
+     * 
+     * @param snapshot The snapshot to draw with draw(g, snapshot), or null to
+     * draw the live game state with draw(g, alpha)
+     * @param alpha The interpolation factor to draw sprites with
+     * @return false if there is no buffer strategy to draw to
+     */
+    private boolean render(RenderSnapshot snapshot, float alpha)
+    {
+        BufferStrategy strategy = win.getBufferStrategy();
+
+        if (strategy == null)
+        {
+        	System.err.println("Null reference for buffer strategy");
+        	return false;
+        }
+
+        if (snapshot == null) Sprite.setInterpolation(alpha);
+
+        do
+        {
+        	// Draw again if the back buffer was restored (and so wiped) while drawing
+        	do
+        	{
+        		Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+        		// Set the clipping (drawable) region to be the screen bounds
+        		g.setClip(0, 0, getWidth(), getHeight());
+        		renderTimer.begin(FrameTimer.DRAW);
+        		try {
+        			if (snapshot != null) draw(g, snapshot); else draw(g, alpha);
+        		}
+        		finally {
+        			g.dispose();
+        		}
+        		renderTimer.end(FrameTimer.DRAW);
+        	}
+        	while (strategy.contentsRestored());
+
+        	renderTimer.begin(FrameTimer.PRESENT);
+        	strategy.show();
+        	renderTimer.end(FrameTimer.PRESENT);
+        }
+        while (strategy.contentsLost());
+
+        // Sync the display on some systems.
+        // (on Linux, this fixes event queue problems)
+        renderTimer.begin(FrameTimer.PRESENT);
+        Toolkit.getDefaultToolkit().sync();
+        renderTimer.end(FrameTimer.PRESENT);
+        return true;
+    }
+
     /**
      * @return The screen width in pixels
      */
@@ -217,8 +475,10 @@ public abstract class GameCore extends JFrame implements KeyListener {
     {
     	if (fullScreen) 
     		return screen.getWidth();
+    	else if (win != null)
+    		return win.getWidth();
     	else
-    		return super.getWidth();
+    		return headlessWidth;
     }
     
     /**
@@ -228,33 +488,113 @@ public abstract class GameCore extends JFrame implements KeyListener {
     {
     	if (fullScreen) 
     		return screen.getHeight();
+    	else if (win != null)
+    		return win.getHeight();
     	else
-    		return super.getHeight();
+    		return headlessHeight;
     }
     
     /**
-     * @return The current frames per second (FPS)
+     * @return The frames per second (FPS) over the most recent timing window
      */
     public float getFPS()
     {
-    	if (currTime - startTime <= 0) return 0.0f;
-    	return (float)frames/((currTime - startTime)/1000.0f);
+    	return renderTimer.getFPS();
+    }
+
+    /**
+     * Gets the timer the game loop records each frame's update, draw,
+     * present and sleep overshoot times with. Games can add their own
+     * phases to it to time parts of update() or draw().
+     * 
+     * @return The frame timer for this game
+     */
+    public FrameTimer getFrameTimer()
+    {
+    	return timer;
+    }
+
+    /**
+     * Gets the timer draw and present times are recorded with. This is the
+     * same as getFrameTimer() unless threaded rendering is on, in which case
+     * it belongs to the render thread and should only be read from draw().
+     * 
+     * @return The frame timer for drawing
+     */
+    public FrameTimer getRenderTimer()
+    {
+    	return renderTimer;
+    }
+
+    /**
+     * @return The queue key events wait in until the next tick
+     */
+    public InputQueue getInputQueue()
+    {
+    	return input;
+    }
+
+    /**
+     * Records every tick from now on to 'recorder' so the session can be
+     * replayed by a HeadlessRunner. The recording is finished with
+     * describeState() when the game loop ends. Anything else the game's
+     * update() depends on, such as random seeds, must be made repeatable by
+     * the game itself.
+     * 
+     * @param recorder The recorder to write to, or null to stop recording
+     */
+    public void setRecorder(InputRecorder recorder)
+    {
+    	this.recorder = recorder;
     }
 
     /**
-     * Handles the keyReleased event to check for the 'Escape' key being
-     * pressed. If you override this method, make sure you allow the user 
-     * to stop the game.
+     * Describes the parts of the game state a replay should reproduce, so a
+     * replay can be checked against the recording it came from. Override
+     * this to report positions, scores and so on.
+     * 
+     * @return A description of the current game state
+     */
+    public String describeState() { return ""; }
+
+    /**
+     * Queues the keyReleased event for the next tick. This runs on the AWT
+     * event thread, so it does nothing else. Override handleKeyReleased()
+     * to respond to the key.
      */
 	public void keyReleased(KeyEvent e) 
 	{ 
-		if (e.getKeyCode() == KeyEvent.VK_ESCAPE) stop(); 
+		input.offer(InputQueue.KEY_RELEASED, e.getKeyCode(), System.nanoTime());
+	}
+
+	/**
+	 * Queues the keyPressed event for the next tick. This runs on the AWT
+	 * event thread, so it does nothing else. Override handleKeyPressed()
+	 * to respond to the key.
+	 */
+	public void keyPressed(KeyEvent e)
+	{
+		input.offer(InputQueue.KEY_PRESSED, e.getKeyCode(), System.nanoTime());
+	}
+
+    /**
+     * Handles a key being released at the start of a tick, checking for the
+     * 'Escape' key. If you override this method, make sure you allow the
+     * user to stop the game.
+     * 
+     * @param keyCode The KeyEvent key code of the key
+     */
+	public void handleKeyReleased(int keyCode)
+	{
+		if (keyCode == KeyEvent.VK_ESCAPE) stop();
 	}
 
 	/**
-	 * Handler for the keyPressed event (empty)
+	 * Handles a key being pressed at the start of a tick (empty)
+	 * 
+	 * @param keyCode The KeyEvent key code of the key
 	 */
-	public void keyPressed(KeyEvent e) { }
+	public void handleKeyPressed(int keyCode) { }
 	
 	/**
 	 * Handler for the keyTyped event (empty)
@@ -276,4 +616,42 @@ public abstract class GameCore extends JFrame implements KeyListener {
      * @param g The Graphics2D object to draw with.
      */
     public abstract void draw(Graphics2D g);
+
+    /**
+     * Called by the game loop to draw a frame. 'alpha' is how far (0 to 1)
+     * the wall clock has moved from the last fixed tick towards the next one,
+     * and is always 1 with a variable time step. Sprites already draw at their
+     * interpolated position, so by default this simply calls draw(g).
+     * 
+     * @param g The Graphics2D object to draw with.
+     * @param alpha The interpolation factor between the previous and current tick
+     */
+    public void draw(Graphics2D g, float alpha) { draw(g); }
+
+    /**
+     * Creates an empty snapshot for the threaded render mode. Override this
+     * to return a subclass if capture() needs to record more than sprites.
+     * 
+     * @return A new, empty snapshot
+     */
+    public RenderSnapshot createSnapshot() { return new RenderSnapshot(); }
+
+    /**
+     * Called by the game loop after update() in threaded render mode to copy
+     * everything draw(g, snapshot) needs into 'snapshot'. The snapshot may
+     * still hold a frame from a while ago and should be cleared first.
+     * 
+     * @param snapshot The snapshot to fill in
+     */
+    public void capture(RenderSnapshot snapshot) { /* do nothing */ }
+
+    /**
+     * Called on the render thread in threaded render mode to draw a snapshot
+     * made by capture(). This must only use what is in the snapshot, as the
+     * game is being updated at the same time.
+     * 
+     * @param g The Graphics2D object to draw with.
+     * @param snapshot The snapshot to draw
+     */
+    public void draw(Graphics2D g, RenderSnapshot snapshot) { /* do nothing */ }
 }
@@ -0,0 +1,149 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Drives a GameCore without a display so the simulation can be benchmarked
+ * or soak tested on machines with no screen (including with
+ * -Djava.awt.headless=true). Fixed length ticks are run back to back with
+ * no sleeping, each applying anything waiting in the game's InputQueue
+ * before calling update(), or a recorded session can be replayed tick for
+ * tick. draw() can optionally be called after each tick to render into an
+ * offscreen image. Each tick is recorded as a frame in the game's FrameTimer.
+ */
+public class HeadlessRunner {
+
+	private GameCore game;				// The game being driven
+	private BufferedImage buffer;		// Offscreen image draw() renders into
+	private Graphics2D bg;				// Graphics2D device for the above image
+
+	private long ticks;					// Ticks run by the last call to run() or replay()
+	private long elapsedNanos;			// Wall clock time taken by the last run
+
+	/**
+	 * Create a runner for 'game'. The game should not also be run with
+	 * GameCore.run() as no window is created for it.
+	 * 
+	 * @param game The game to drive
+	 * @param width Width in pixels of the offscreen image
+	 * @param height Height in pixels of the offscreen image
+	 */
+	public HeadlessRunner(GameCore game, int width, int height)
+	{
+		this.game = game;
+		game.initHeadless(width, height);
+
+		buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		bg = buffer.createGraphics();
+		bg.setClip(0, 0, width, height);
+	}
+
+	/**
+	 * Runs the game for 'count' ticks as fast as possible.
+	 * 
+	 * @param count The number of times to call update()
+	 * @param tickMillis The elapsed time to pass to each update() call
+	 * @param render True to call draw() into the offscreen image after every tick
+	 * @return The number of ticks simulated per second of wall clock time
+	 */
+	public double run(long count, long tickMillis, boolean render)
+	{
+		FrameTimer timer = game.getFrameTimer();
+		Sprite.setInterpolation(1.0f);
+
+		long start = System.nanoTime();
+		for (long i=0; i<count; i++)
+		{
+			timer.begin(FrameTimer.UPDATE);
+			game.tick(tickMillis);
+			timer.end(FrameTimer.UPDATE);
+			if (render)
+			{
+				timer.begin(FrameTimer.DRAW);
+				game.draw(bg, 1.0f);
+				timer.end(FrameTimer.DRAW);
+			}
+			timer.endFrame();
+		}
+		elapsedNanos = System.nanoTime() - start;
+		ticks = count;
+
+		return getTicksPerSecond();
+	}
+
+	/**
+	 * Runs the game through every tick of a recorded session, feeding the
+	 * recorded key events through the game's InputQueue so they are applied
+	 * exactly as they were when recording. The game must have been set up
+	 * with the seeds returned by replay.getSeeds().
+	 *
+	 * @param replay The recording to play back
+	 * @param realTime True to pace ticks at the recorded elapsed times, false to run as fast as possible
+	 * @param render True to call draw() into the offscreen image after every tick
+	 * @return The number of ticks simulated per second of wall clock time
+	 * @throws IOException If the recording can't be read
+	 */
+	public double replay(InputReplay replay, boolean realTime, boolean render) throws IOException
+	{
+		FrameTimer timer = game.getFrameTimer();
+		InputQueue input = game.getInputQueue();
+		Sprite.setInterpolation(1.0f);
+
+		long count = 0;
+		long simulated = 0;
+		long start = System.nanoTime();
+		while (replay.nextTick())
+		{
+			for (int i=0; i<replay.getEventCount(); i++)
+				input.offer(replay.getEventType(i), replay.getEventKeyCode(i), System.nanoTime());
+
+			timer.begin(FrameTimer.UPDATE);
+			game.tick(replay.getElapsed());
+			timer.end(FrameTimer.UPDATE);
+			if (render)
+			{
+				timer.begin(FrameTimer.DRAW);
+				game.draw(bg, 1.0f);
+				timer.end(FrameTimer.DRAW);
+			}
+			count++;
+			simulated += replay.getElapsed();
+
+			if (realTime)
+			{
+				long ahead = simulated - (System.nanoTime() - start) / 1000000;
+				if (ahead > 0)
+					try { Thread.sleep(ahead); } catch (InterruptedException ex) { }
+			}
+			timer.endFrame();
+		}
+		elapsedNanos = System.nanoTime() - start;
+		ticks = count;
+
+		return getTicksPerSecond();
+	}
+
+	/**
+	 * @return The ticks per second achieved by the last call to run() or replay()
+	 */
+	public double getTicksPerSecond()
+	{
+		if (elapsedNanos <= 0) return 0.0;
+		return ticks / (elapsedNanos / 1000000000.0);
+	}
+
+	/**
+	 * @return The offscreen image the game is drawn into
+	 */
+	public BufferedImage getImage() { return buffer; }
+
+	/**
+	 * Summarise the last run so it can be printed
+	 */
+	public String toString()
+	{
+		return String.format("%d ticks in %.3fs (%.1f ticks/s)", ticks, elapsedNanos / 1000000000.0, getTicksPerSecond());
+	}
+}
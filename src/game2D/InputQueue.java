@@ -0,0 +1,109 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InputQueue carries key events from the AWT event thread to the game loop.
+ * It is a fixed size ring buffer for a single producer (the thread calling
+ * offer()) and a single consumer (the thread calling poll()), so neither
+ * side takes a lock or allocates. If the game loop stops draining the
+ * queue, events that do not fit are dropped and counted.
+ */
+public class InputQueue {
+
+	public static final int KEY_PRESSED = 1;
+	public static final int KEY_RELEASED = 2;
+
+	private int mask;					// Capacity - 1, used to wrap indexes into the arrays
+	private int[] types;				// Type of each queued event
+	private int[] codes;				// Key code of each queued event
+	private long[] times;				// When each event was queued, from System.nanoTime()
+
+	private AtomicLong head = new AtomicLong();	// Next event to read, only advanced by the consumer
+	private AtomicLong tail = new AtomicLong();	// Next slot to write, only advanced by the producer
+	private volatile long dropped = 0;			// Events lost because the queue was full
+
+	private int type;					// The event returned by the last successful poll()
+	private int code;
+	private long time;
+
+	/**
+	 * Create a queue that can hold 'capacity' events, rounded up to a power of two.
+	 *
+	 * @param capacity The number of events that can be waiting at once
+	 */
+	public InputQueue(int capacity)
+	{
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		types = new int[size];
+		codes = new int[size];
+		times = new long[size];
+	}
+
+	/**
+	 * Adds an event to the queue. Only one thread may call this.
+	 *
+	 * @param eventType KEY_PRESSED or KEY_RELEASED
+	 * @param keyCode The KeyEvent key code
+	 * @param nanoTime When the event happened, from System.nanoTime()
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean offer(int eventType, int keyCode, long nanoTime)
+	{
+		long t = tail.get();
+		if (t - head.get() > mask)
+		{
+			dropped++;
+			return false;
+		}
+
+		int i = (int)(t & mask);
+		types[i] = eventType;
+		codes[i] = keyCode;
+		times[i] = nanoTime;
+		// Publish the slot only after it has been filled in
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the oldest event off the queue, after which getType(), getKeyCode()
+	 * and getTime() describe it. Only one thread may call this.
+	 *
+	 * @return false if the queue is empty
+	 */
+	public boolean poll()
+	{
+		long h = head.get();
+		if (h == tail.get()) return false;
+
+		int i = (int)(h & mask);
+		type = types[i];
+		code = codes[i];
+		time = times[i];
+		// Hand the slot back to the producer only after it has been read
+		head.lazySet(h + 1);
+		return true;
+	}
+
+	/**
+	 * @return The type of the last event returned by poll()
+	 */
+	public int getType() { return type; }
+
+	/**
+	 * @return The key code of the last event returned by poll()
+	 */
+	public int getKeyCode() { return code; }
+
+	/**
+	 * @return When the last event returned by poll() was queued, from System.nanoTime()
+	 */
+	public long getTime() { return time; }
+
+	/**
+	 * @return The number of events dropped because the queue was full
+	 */
+	public long getDropped() { return dropped; }
+}
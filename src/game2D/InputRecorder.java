@@ -0,0 +1,149 @@
+package game2D;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * InputRecorder writes a play session to a compact binary log that can be
+ * replayed with InputReplay. Together with the random seeds the game was
+ * started with, the key events applied at the start of each tick and the
+ * elapsed time passed to update() are enough to reproduce the session
+ * exactly.
+ *
+ * The log is laid out as:
+ *
+ * int magic ("ADRP"), byte version, byte seed count, long seeds...
+ * then for each tick:
+ *   byte TICK, varint elapsed, varint event count,
+ *   varint (key code << 1 | 1 if released) for each event
+ * and finally:
+ *   byte END, UTF string describing the game's end state
+ */
+public class InputRecorder {
+
+	static final int MAGIC = 0x41445250;		// "ADRP"
+	static final int VERSION = 1;
+	static final int TICK = 1;					// Tag for a tick record
+	static final int END = 2;					// Tag for the end of the log
+
+	private DataOutputStream out;				// null once finished or after a write error
+	private int[] events = new int[64];			// Encoded events waiting for the end of the tick
+	private int eventCount = 0;
+	private long ticks = 0;
+
+	/**
+	 * Starts recording to 'fileName', overwriting it if it exists.
+	 *
+	 * @param fileName The file to write the log to
+	 * @param seeds The seeds the game's random number generators were created with
+	 * @throws IOException If the file can't be created
+	 */
+	public InputRecorder(String fileName, long[] seeds) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(seeds.length);
+		for (int i=0; i<seeds.length; i++)
+			out.writeLong(seeds[i]);
+	}
+
+	/**
+	 * Records a key event applied in the current tick.
+	 *
+	 * @param type InputQueue.KEY_PRESSED or InputQueue.KEY_RELEASED
+	 * @param keyCode The KeyEvent key code
+	 */
+	public void recordKey(int type, int keyCode)
+	{
+		if (eventCount == events.length)
+			events = Arrays.copyOf(events, eventCount * 2);
+		events[eventCount++] = (keyCode << 1) | (type == InputQueue.KEY_RELEASED ? 1 : 0);
+	}
+
+	/**
+	 * Writes the current tick and the events recorded for it.
+	 *
+	 * @param elapsed The elapsed time that was passed to update()
+	 */
+	public void endTick(long elapsed)
+	{
+		if (out == null) return;
+
+		try {
+			out.writeByte(TICK);
+			writeVarLong(out, elapsed);
+			writeVarLong(out, eventCount);
+			for (int i=0; i<eventCount; i++)
+				writeVarLong(out, events[i]);
+			ticks++;
+		}
+		catch (IOException e) {
+			System.err.println("Failed to write input log, recording stopped: " + e);
+			out = null;
+		}
+		eventCount = 0;
+	}
+
+	/**
+	 * Ends the log with a description of the game's state so a replay can
+	 * check it ends up in the same place, and closes the file.
+	 *
+	 * @param endState Description of the game state after the last tick
+	 */
+	public void finish(String endState)
+	{
+		if (out == null) return;
+
+		try {
+			out.writeByte(END);
+			out.writeUTF(endState);
+			out.close();
+		}
+		catch (IOException e) {
+			System.err.println("Failed to finish input log: " + e);
+		}
+		out = null;
+	}
+
+	/**
+	 * @return The number of ticks recorded so far
+	 */
+	public long getTicks() { return ticks; }
+
+	/**
+	 * Writes a non-negative value 7 bits at a time, so small values take one byte.
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	/**
+	 * Reads a value written by writeVarLong().
+	 */
+	static long readVarLong(DataInput in) throws IOException
+	{
+		long value = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return value;
+	}
+}
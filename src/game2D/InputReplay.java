@@ -0,0 +1,114 @@
+package game2D;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * InputReplay reads back a log written by InputRecorder one tick at a time.
+ */
+public class InputReplay {
+
+	private DataInputStream in;
+	private long[] seeds;					// Seeds the recorded game was started with
+
+	private long elapsed = 0;				// Elapsed time of the current tick
+	private int eventCount = 0;				// Events applied at the start of the current tick
+	private int[] events = new int[64];		// Encoded events for the current tick
+	private String endState = null;			// Recorded end state, once the end of the log is reached
+
+	/**
+	 * Opens a log and reads its header.
+	 *
+	 * @param fileName The log file to replay
+	 * @throws IOException If the file can't be read or isn't an input log
+	 */
+	public InputReplay(String fileName) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+
+		if (in.readInt() != InputRecorder.MAGIC)
+		{
+			in.close();
+			throw new IOException("'" + fileName + "' is not an input log");
+		}
+		int version = in.readUnsignedByte();
+		if (version != InputRecorder.VERSION)
+		{
+			in.close();
+			throw new IOException("Unsupported input log version " + version + " in '" + fileName + "'");
+		}
+
+		seeds = new long[in.readUnsignedByte()];
+		for (int i=0; i<seeds.length; i++)
+			seeds[i] = in.readLong();
+	}
+
+	/**
+	 * @return The seeds the recorded game's random number generators were created with
+	 */
+	public long[] getSeeds() { return seeds; }
+
+	/**
+	 * Moves on to the next recorded tick.
+	 *
+	 * @return false once the end of the log has been reached
+	 * @throws IOException If the log can't be read or is cut short
+	 */
+	public boolean nextTick() throws IOException
+	{
+		if (endState != null) return false;
+
+		int tag = in.readUnsignedByte();
+		if (tag == InputRecorder.END)
+		{
+			endState = in.readUTF();
+			in.close();
+			return false;
+		}
+		if (tag != InputRecorder.TICK)
+			throw new IOException("Corrupt input log, unexpected record " + tag);
+
+		elapsed = InputRecorder.readVarLong(in);
+		eventCount = (int)InputRecorder.readVarLong(in);
+		if (eventCount > events.length)
+			events = new int[eventCount];
+		for (int i=0; i<eventCount; i++)
+			events[i] = (int)InputRecorder.readVarLong(in);
+		return true;
+	}
+
+	/**
+	 * @return The elapsed time passed to update() in the current tick
+	 */
+	public long getElapsed() { return elapsed; }
+
+	/**
+	 * @return The number of key events applied at the start of the current tick
+	 */
+	public int getEventCount() { return eventCount; }
+
+	/**
+	 * @param i The event index, from 0 to getEventCount() - 1
+	 * @return InputQueue.KEY_PRESSED or InputQueue.KEY_RELEASED
+	 */
+	public int getEventType(int i)
+	{
+		return (events[i] & 1) == 0 ? InputQueue.KEY_PRESSED : InputQueue.KEY_RELEASED;
+	}
+
+	/**
+	 * @param i The event index, from 0 to getEventCount() - 1
+	 * @return The KeyEvent key code of the event
+	 */
+	public int getEventKeyCode(int i)
+	{
+		return events[i] >>> 1;
+	}
+
+	/**
+	 * @return The end state recorded at the end of the log, or null if the end hasn't been reached
+	 */
+	public String getEndState() { return endState; }
+}
@@ -0,0 +1,73 @@
+package game2D;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+/**
+ * MapCompiler converts text tile maps into the compiled format that
+ * TileMap loads without parsing. Each map is written next to the original
+ * with its extension replaced by TileMap.COMPILED_EXTENSION, so the images
+ * it refers to are still found. Run it whenever a text map is edited:
+ *
+ *   java game2D.MapCompiler maps/map1.txt maps/map2.txt ...
+ *
+ * With no arguments every .txt file in the maps folder is converted.
+ */
+public class MapCompiler {
+
+	public static void main(String[] args) throws IOException
+	{
+		File [] files;
+		if (args.length > 0)
+		{
+			files = new File[args.length];
+			for (int i=0; i<args.length; i++)
+				files[i] = new File(args[i]);
+		}
+		else
+		{
+			files = new File("maps").listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String name) { return name.endsWith(".txt"); }
+			});
+			if (files == null)
+				throw new IOException("No maps folder in " + new File("").getAbsolutePath());
+		}
+
+		boolean failed = false;
+		for (File f : files)
+		{
+			if (!compile(f))
+				failed = true;
+		}
+		if (failed) System.exit(1);
+	}
+
+	/**
+	 * Compiles one text map, writing the result next to it.
+	 *
+	 * @param text The text map to compile
+	 * @return true if the map was compiled
+	 * @throws IOException If the compiled map can't be written
+	 */
+	public static boolean compile(File text) throws IOException
+	{
+		String folder = text.getParent() == null ? "." : text.getParent();
+		TileMap map = new TileMap();
+		if (!map.loadMap(folder, text.getName()))
+		{
+			System.err.println("Skipping '" + text + "', it didn't load");
+			return false;
+		}
+
+		String name = text.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) name = name.substring(0, dot);
+		File compiled = new File(folder, name + TileMap.COMPILED_EXTENSION);
+		map.saveCompiledMap(compiled.getPath());
+
+		System.out.println(text + " -> " + compiled + " (" + map.getMapWidth() + "x" + map.getMapHeight() + " tiles, "
+				+ compiled.length() + " bytes)");
+		return true;
+	}
+}
@@ -0,0 +1,301 @@
+package game2D;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * A RenderSnapshot is a copy of everything needed to draw one frame, taken
+ * from the game state at the end of an update. It holds a list of draw
+ * commands (sprites with their transforms, and filled or outlined
+ * rectangles) in screen coordinates plus a scroll offset for the tile map.
+ * Games that need more (scores, menu state and so on) can extend it.
+ *
+ * Once captured, a snapshot can be drawn without reading any Sprite, so
+ * drawing can happen on a different thread to update(). A snapshot can also
+ * be drawn part way between an earlier snapshot and itself to smooth
+ * movement between simulation ticks, see interpolateFrom().
+ *
+ * Snapshots are meant to be reused: clear() keeps the command arrays so
+ * capturing a frame does not allocate once they have grown large enough.
+ */
+public class RenderSnapshot {
+
+	private static final int SPRITE = 0;	// Draw an image with a transform
+	private static final int OUTLINE = 1;	// Draw a rectangle outline
+	private static final int FILL = 2;		// Fill a rectangle
+
+	private static final int MATCH_WINDOW = 8;	// How far ahead to look for a command in the previous snapshot
+
+	private int count = 0;				// Number of commands in this snapshot
+	private int[] ops;					// The type of each command
+	private Object[] keys;				// What each command was created from, used to match commands between snapshots
+	private Image[] images;				// Image to draw for sprite commands
+	private float[] xs;					// Screen x position of each command
+	private float[] ys;					// Screen y position of each command
+	private int[] widths;				// Width of a rectangle or sprite image
+	private int[] heights;				// Height of a rectangle or sprite image
+	private double[] scales;			// Sprite scale
+	private double[] rotations;			// Sprite rotation in radians
+	private boolean[] flips;			// Whether the sprite is flipped on the x axis
+	private Color[] colours;			// Colour of rectangle commands
+
+	private int scrollX = 0;			// Offset to draw the tile map at
+	private int scrollY = 0;
+	private long time = 0;				// When the snapshot was captured, from System.nanoTime()
+
+	private RenderSnapshot from = null;	// Earlier snapshot to interpolate from, if any
+	private float alpha = 1.0f;			// How far to interpolate from 'from' to this snapshot
+
+	private AffineTransform transform = new AffineTransform();
+
+	/**
+	 * Create an empty snapshot.
+	 */
+	public RenderSnapshot()
+	{
+		allocate(64);
+	}
+
+	/**
+	 * Grows the command arrays to hold 'size' commands.
+	 */
+	private void allocate(int size)
+	{
+		if (ops == null)
+		{
+			ops = new int[size];
+			keys = new Object[size];
+			images = new Image[size];
+			xs = new float[size];
+			ys = new float[size];
+			widths = new int[size];
+			heights = new int[size];
+			scales = new double[size];
+			rotations = new double[size];
+			flips = new boolean[size];
+			colours = new Color[size];
+			return;
+		}
+
+		ops = Arrays.copyOf(ops, size);
+		keys = Arrays.copyOf(keys, size);
+		images = Arrays.copyOf(images, size);
+		xs = Arrays.copyOf(xs, size);
+		ys = Arrays.copyOf(ys, size);
+		widths = Arrays.copyOf(widths, size);
+		heights = Arrays.copyOf(heights, size);
+		scales = Arrays.copyOf(scales, size);
+		rotations = Arrays.copyOf(rotations, size);
+		flips = Arrays.copyOf(flips, size);
+		colours = Arrays.copyOf(colours, size);
+	}
+
+	/**
+	 * Adds a command and returns its index.
+	 */
+	private int add(int op, Object key)
+	{
+		if (count == ops.length) allocate(count * 2);
+		ops[count] = op;
+		keys[count] = key;
+		return count++;
+	}
+
+	/**
+	 * Removes all commands so the snapshot can be captured again.
+	 */
+	public void clear()
+	{
+		count = 0;
+		scrollX = 0;
+		scrollY = 0;
+		from = null;
+		alpha = 1.0f;
+	}
+
+	/**
+	 * Records 's' as it would be drawn by Sprite.drawTransformed(), using its
+	 * current draw position, offsets, scale, rotation and flip. Nothing is
+	 * recorded if the sprite is hidden.
+	 *
+	 * @param s The sprite to record
+	 */
+	public void addSprite(Sprite s)
+	{
+		if (!s.isVisible()) return;
+
+		Image img = s.getImage();
+		if (img == null) return;
+
+		int i = add(SPRITE, s);
+		images[i] = img;
+		xs[i] = Math.round(s.getDrawX()) + s.getOffsetX();
+		ys[i] = Math.round(s.getDrawY()) + s.getOffsetY();
+		widths[i] = img.getWidth(null);
+		heights[i] = img.getHeight(null);
+		scales[i] = s.getScale();
+		rotations[i] = Math.toRadians(s.getRotation());
+		flips[i] = s.getFlipX();
+	}
+
+	/**
+	 * Records a rectangle outline.
+	 *
+	 * @param key The object the rectangle belongs to, so it can be matched
+	 * with the same rectangle in another snapshot, or null
+	 * @param c The colour to draw with
+	 * @param r The rectangle in screen coordinates
+	 */
+	public void addOutline(Object key, Color c, Rectangle r)
+	{
+		addRect(OUTLINE, key, c, r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * Records a filled rectangle.
+	 *
+	 * @param key The object the rectangle belongs to, or null
+	 * @param c The colour to fill with
+	 * @param x Screen x coordinate
+	 * @param y Screen y coordinate
+	 * @param w Width in pixels
+	 * @param h Height in pixels
+	 */
+	public void addFill(Object key, Color c, int x, int y, int w, int h)
+	{
+		addRect(FILL, key, c, x, y, w, h);
+	}
+
+	private void addRect(int op, Object key, Color c, int x, int y, int w, int h)
+	{
+		int i = add(op, key);
+		colours[i] = c;
+		xs[i] = x;
+		ys[i] = y;
+		widths[i] = w;
+		heights[i] = h;
+	}
+
+	/**
+	 * Sets the offset the tile map should be drawn at in this frame.
+	 */
+	public void setScroll(int x, int y)
+	{
+		scrollX = x;
+		scrollY = y;
+	}
+
+	/**
+	 * @return The tile map x offset, interpolated if interpolateFrom() was used
+	 */
+	public int getScrollX()
+	{
+		if (from == null) return scrollX;
+		return Math.round(from.scrollX + (scrollX - from.scrollX) * alpha);
+	}
+
+	/**
+	 * @return The tile map y offset, interpolated if interpolateFrom() was used
+	 */
+	public int getScrollY()
+	{
+		if (from == null) return scrollY;
+		return Math.round(from.scrollY + (scrollY - from.scrollY) * alpha);
+	}
+
+	/**
+	 * @param time When the snapshot was captured, from System.nanoTime()
+	 */
+	public void setTime(long time) { this.time = time; }
+
+	/**
+	 * @return When the snapshot was captured, from System.nanoTime()
+	 */
+	public long getTime() { return time; }
+
+	/**
+	 * Makes the following draw calls show the frame 'alpha' of the way from
+	 * 'earlier' to this snapshot. Commands are matched by the object they
+	 * were created from, anything without a match is drawn where it is in
+	 * this snapshot.
+	 *
+	 * @param earlier The snapshot to interpolate from, or null for none
+	 * @param alpha 0 to draw as 'earlier', 1 to draw as this snapshot
+	 */
+	public void interpolateFrom(RenderSnapshot earlier, float alpha)
+	{
+		from = earlier;
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Draws every command in the order they were recorded.
+	 *
+	 * @param g The graphics object to draw to
+	 */
+	public void drawCommands(Graphics2D g)
+	{
+		int match = 0;	// Where to start looking for the next command in 'from'
+
+		for (int i=0; i<count; i++)
+		{
+			float x = xs[i];
+			float y = ys[i];
+
+			// Find the same object in the earlier snapshot to move from
+			if (from != null && keys[i] != null)
+			{
+				int end = Math.min(from.count, match + MATCH_WINDOW);
+				for (int j=match; j<end; j++)
+				{
+					if (from.keys[j] == keys[i] && from.ops[j] == ops[i])
+					{
+						x = from.xs[j] + (x - from.xs[j]) * alpha;
+						y = from.ys[j] + (y - from.ys[j]) * alpha;
+						match = j + 1;
+						break;
+					}
+				}
+			}
+
+			switch (ops[i])
+			{
+				case SPRITE:
+					drawSprite(g, i, Math.round(x), Math.round(y));
+					break;
+				case OUTLINE:
+					g.setColor(colours[i]);
+					g.drawRect(Math.round(x), Math.round(y), widths[i], heights[i]);
+					break;
+				case FILL:
+					g.setColor(colours[i]);
+					g.fillRect(Math.round(x), Math.round(y), widths[i], heights[i]);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Draws sprite command 'i' the same way as Sprite.drawTransformed().
+	 */
+	private void drawSprite(Graphics2D g, int i, float x, float y)
+	{
+		int flip = 1;
+		if (flips[i])
+		{
+			x += widths[i];
+			flip = -1;
+		}
+
+		transform.setToTranslation(x, y);
+		transform.scale(scales[i] * flip, scales[i]);
+		transform.rotate(rotations[i], widths[i]/2, heights[i]/2);
+		g.drawImage(images[i], transform, null);
+	}
+}
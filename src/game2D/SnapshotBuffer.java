@@ -0,0 +1,93 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SnapshotBuffer passes snapshots of the game from the simulation thread to
+ * the render thread without locks. It holds four snapshots: one being
+ * written, one waiting to be picked up and the two most recent ones the
+ * reader has picked up, so the reader can interpolate between them. The
+ * writer never waits for the reader, a snapshot the reader did not get to
+ * in time is simply overwritten by a newer one.
+ *
+ * Only one thread may write and only one thread may read.
+ */
+public class SnapshotBuffer<T> {
+
+	private static final int INDEX = 3;		// Bits of 'ready' holding a slot index
+	private static final int FRESH = 4;		// Set in 'ready' when the waiting slot has not been read
+
+	private Object[] slots;
+	private AtomicInteger ready;			// The slot waiting to be picked up by the reader
+	private int writing;					// Slot owned by the writer
+	private int current;					// Newest slot owned by the reader
+	private int previous;					// Second newest slot owned by the reader
+	private int acquired = 0;				// Number of snapshots the reader has picked up, up to 2
+
+	/**
+	 * Create a buffer from four snapshot objects that will be reused.
+	 */
+	public SnapshotBuffer(T a, T b, T c, T d)
+	{
+		slots = new Object[] { a, b, c, d };
+		writing = 0;
+		ready = new AtomicInteger(1);
+		current = 2;
+		previous = 3;
+	}
+
+	/**
+	 * @return The snapshot the writer should fill in next
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer()
+	{
+		return (T)slots[writing];
+	}
+
+	/**
+	 * Hands the snapshot returned by getWriteBuffer() to the reader. It must
+	 * not be touched by the writer afterwards.
+	 */
+	public void publish()
+	{
+		writing = ready.getAndSet(writing | FRESH) & INDEX;
+	}
+
+	/**
+	 * Picks up the newest published snapshot, if there is one the reader has
+	 * not seen. The snapshot that was current becomes the previous one.
+	 *
+	 * @return true if a new snapshot was picked up
+	 */
+	public boolean acquire()
+	{
+		if ((ready.get() & FRESH) == 0) return false;
+
+		int fresh = ready.getAndSet(previous) & INDEX;
+		previous = current;
+		current = fresh;
+		if (acquired < 2) acquired++;
+		return true;
+	}
+
+	/**
+	 * @return The newest snapshot picked up by acquire(), or null if there hasn't been one
+	 */
+	@SuppressWarnings("unchecked")
+	public T getCurrent()
+	{
+		if (acquired < 1) return null;
+		return (T)slots[current];
+	}
+
+	/**
+	 * @return The snapshot picked up before the current one, or null if there hasn't been one
+	 */
+	@SuppressWarnings("unchecked")
+	public T getPrevious()
+	{
+		if (acquired < 2) return null;
+		return (T)slots[previous];
+	}
+}
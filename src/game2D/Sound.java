@@ -10,7 +10,7 @@ public class Sound extends Thread {
 	public static int FAST_EFFECT = 3;
 	private int currentEffect;
 
-	private Clip clip;
+	private volatile Clip clip;	// Set by the sound's thread once the file is loaded
 	private File file;
 
 	private boolean loop;
@@ -26,6 +26,35 @@ public class Sound extends Thread {
 		currentEffect = effect;
 	}
 
+	/**
+	 * Plays the sound. The first call starts the sound's thread, which loads
+	 * and plays the file; later calls rewind the clip it loaded and play it
+	 * again, so one Sound can be played any number of times.
+	 */
+	public synchronized void play() {
+		if (getState() == Thread.State.NEW) {
+			start();
+			return;
+		}
+		Clip c = clip;
+		// still loading, or failed to load
+		if (c == null)
+			return;
+
+		c.stop();
+		c.setFramePosition(0);
+		c.start();
+	}
+
+	/**
+	 * Stops the sound if it is playing, it can be started again with play().
+	 */
+	public void stopPlaying() {
+		Clip c = clip;
+		if (c != null)
+			c.stop();
+	}
+
 	public void startLevel() {
 		// there is a race condition, clip initialisation is slow and when the game starts
 		// the clip could potentially be null when applying the new level "no sound effect"
@@ -70,12 +99,13 @@ public class Sound extends Thread {
 
 	/**
 	 * Applies one of 3 effects (none, echo, speed-up) on a wav file.
+	 * Public so the effects can be benchmarked without playing anything.
 	 * @param file - The file to apply the effect to
 	 * @param effect - What effect to apply
 	 * @return Returns a byte[] representing the transformed sound as bytes
 	 * @throws IOException
 	 */
-	private byte[] applyEffect(File file, int effect) throws IOException {
+	public byte[] applyEffect(File file, int effect) throws IOException {
 
 		// input stream is just the original file's bytes
 		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
@@ -15,18 +15,24 @@ public class Sprite {
 	// The current Animation to use for this sprite
     private Animation anim;		
 
-    // PlayerCollision (pixels)
+    // Position (pixels)
     private float x;
     private float y;
 
+    // Position before the last update, used to draw between ticks
+    private float prevX;
+    private float prevY;
+
     // Velocity (pixels per millisecond)
     private float dx;
     private float dy;
 
-    // Dimensions of the sprite
+    // Dimensions of the sprite's current frame, refreshed when the frame changes
     private float height;
     private float width;
     private float radius;
+    private Animation boundsAnim;	// The animation and frame the dimensions were taken from
+    private int boundsFrame = -1;
 
     // The scale to draw the sprite at where 1 equals normal size
     private double scale;
@@ -35,6 +41,11 @@ public class Sprite {
     // whether the image is fipped on X axis or not
     private int flipX;
 
+    // Shapes a sprite can collide as
+    public static final int BOX_SHAPE = 0;		// The sprite's box, turned by its rotation
+    public static final int CIRCLE_SHAPE = 1;	// A circle of getRadius() around the middle of the box
+    private int collisionShape = BOX_SHAPE;
+
     // If render is 'true', the sprite will be drawn when requested
     private boolean render;
     
@@ -43,6 +54,15 @@ public class Sprite {
     private int xoff=0;
     private int yoff=0;
 
+    // The EntityStore holding this sprite's position and velocity, and the
+    // sprite's place in it, or null if the sprite holds them itself
+    EntityStore<?> store;
+    int index;
+
+    // How far (0 to 1) to draw sprites between their previous and current
+    // positions. Set by the game loop once per frame, 1 draws the current position.
+    private static float interpolation = 1.0f;
+
     /**
      * Create a new sprite object with no annimation, will require explicit setting of animation later
      * Enables classes extending Sprite to control their animations
@@ -143,75 +163,206 @@ public class Sprite {
 
     /**
         Updates this Sprite's Animation and its position based
-        on the elapsedTime.
+        on the elapsedTime. A sprite in an EntityStore is moved
+        by the store's integrate(), so only its Animation is
+        updated here.
         
         @param The time that has elapsed since the last call to update
     */
     public void update(long elapsedTime) {
+    	if (store == null) {
+    		prevX = x;
+    		prevY = y;
+    	}
     	if (!render) return;
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
+    	if (store == null) {
+    		x += dx * elapsedTime;
+    		y += dy * elapsedTime;
+    	}
         anim.update(elapsedTime);
-        width = anim.getImage().getWidth(null);
-        height = anim.getImage().getHeight(null);
+        refreshBounds();
+    }
+
+    /**
+        Takes the sprite's dimensions from its current frame if the
+        animation or frame has changed since they were last taken.
+        The frame sizes are stored by the animation, so this never
+        has to ask an image for its size.
+    */
+    private void refreshBounds() {
+        int frame = anim.getFrameIndex();
+        if (anim == boundsAnim && frame == boundsFrame) return;
+
+        width = anim.getWidth();
+        height = anim.getHeight();
         if (width > height)
         	radius = width / 2.0f;
         else
         	radius = height / 2.0f;
+
+        // an animation without frames yet is looked at again next time
+        boundsAnim = anim;
+        boundsFrame = width > 0 ? frame : -1;
+    }
+
+    /**
+        Moves this Sprite's position and velocity into place 'i'
+        of 'store'. Called by EntityStore.add().
+    */
+    void attach(EntityStore<?> store, int i) {
+    	store.x[i] = x;
+    	store.y[i] = y;
+    	store.prevX[i] = prevX;
+    	store.prevY[i] = prevY;
+    	store.dx[i] = dx;
+    	store.dy[i] = dy;
+    	if (render) store.flags[i] |= EntityStore.VISIBLE;
+    	this.store = store;
+    	this.index = i;
+    }
+
+    /**
+        Takes this Sprite's position and velocity back out of its
+        store. Called by EntityStore when the sprite is removed.
+    */
+    void detach() {
+    	x = store.x[index];
+    	y = store.y[index];
+    	prevX = store.prevX[index];
+    	prevY = store.prevY[index];
+    	dx = store.dx[index];
+    	dy = store.dy[index];
+    	store = null;
     }
 
     /**
         Gets this Sprite's current x position.
     */
     public float getX() {
-        return x;
+        return store == null ? x : store.x[index];
     }
 
     /**
         Gets this Sprite's current y position.
     */
     public float getY() {
-        return y;
+        return store == null ? y : store.y[index];
     }
 
     /**
         Sets this Sprite's current x position.
     */
     public void setX(float x) {
-        this.x = x;
+        if (store == null) this.x = x;
+        else store.x[index] = x;
     }
 
     /**
         Sets this Sprite's current y position.
     */
     public void setY(float y) {
-        this.y = y;
+        if (store == null) this.y = y;
+        else store.y[index] = y;
+    }
+
+    /**
+        Gets the x position this Sprite had before the last call to
+        update(), or when it was last shown if that was more recent.
+    */
+    public float getPreviousX() {
+        return store == null ? prevX : store.prevX[index];
+    }
+
+    /**
+        Gets the y position this Sprite had before the last call to
+        update(), or when it was last shown if that was more recent.
+    */
+    public float getPreviousY() {
+        return store == null ? prevY : store.prevY[index];
+    }
+
+    /**
+        Gets the x position this Sprite should be drawn at, interpolated
+        between its previous and current position.
+    */
+    public float getDrawX() {
+        float from = getPreviousX();
+        return from + (getX() - from) * interpolation;
+    }
+
+    /**
+        Gets the y position this Sprite should be drawn at, interpolated
+        between its previous and current position.
+    */
+    public float getDrawY() {
+        float from = getPreviousY();
+        return from + (getY() - from) * interpolation;
+    }
+
+    /**
+        Sets how far between their previous and current positions
+        sprites are drawn. 0 draws the previous position, 1 the current.
+    */
+    public static void setInterpolation(float alpha) {
+        interpolation = alpha;
     }
 
     public void shiftX(float shift)
     {
-    	this.x += shift;
+    	setX(getX() + shift);
     }
     
     public void shiftY(float shift)
     {
-    	this.y += shift;
+    	setY(getY() + shift);
     }
     
     /**
         Gets this Sprite's width, based on the size of the
-        current image.
+        current frame.
     */
     public int getWidth() {
-        return anim.getImage().getWidth(null);
+        refreshBounds();
+        return (int)width;
     }
 
     /**
         Gets this Sprite's height, based on the size of the
-        current image.
+        current frame.
     */
     public int getHeight() {
-        return anim.getImage().getHeight(null);
+        refreshBounds();
+        return (int)height;
+    }
+
+    /**
+        Gets the collision mask of this Sprite's current frame, or
+        null if its animation has no masks, in which case the whole
+        of its bounding box can be hit.
+    */
+    public CollisionMask getCollisionMask() {
+        return anim.getMask();
+    }
+
+    /**
+        Sets the shape this Sprite collides as, BOX_SHAPE or
+        CIRCLE_SHAPE. Both are scaled with the sprite, and a box
+        is turned by the sprite's rotation.
+    */
+    public void setCollisionShape(int shape)
+    {
+    	if (shape != BOX_SHAPE && shape != CIRCLE_SHAPE)
+    		throw new IllegalArgumentException("Unknown collision shape " + shape);
+    	collisionShape = shape;
+    }
+
+    /**
+        Gets the shape this Sprite collides as.
+        See 'setCollisionShape' for more information.
+    */
+    public int getCollisionShape()
+    {
+    	return collisionShape;
     }
 
     /**
@@ -219,6 +370,7 @@ public class Sprite {
     */
     public float getRadius()
     {
+    	refreshBounds();
     	return radius;
     }
 
@@ -227,7 +379,7 @@ public class Sprite {
         per millisecond.
     */
     public float getVelocityX() {
-        return dx;
+        return store == null ? dx : store.dx[index];
     }
 
     /**
@@ -235,7 +387,7 @@ public class Sprite {
         per millisecond.
     */
     public float getVelocityY() {
-        return dy;
+        return store == null ? dy : store.dy[index];
     }
 
     /**
@@ -243,7 +395,8 @@ public class Sprite {
         per millisecond.
     */
     public void setVelocityX(float dx) {
-        this.dx = dx;
+        if (store == null) this.dx = dx;
+        else store.dx[index] = dx;
     }
 
     /**
@@ -251,7 +404,8 @@ public class Sprite {
         per millisecond.
     */
     public void setVelocityY(float dy) {
-        this.dy = dy;
+        if (store == null) this.dy = dy;
+        else store.dy[index] = dy;
     }
 
 	/**
@@ -311,8 +465,8 @@ public class Sprite {
     */
     public void stop()
     {
-    	dx = 0;
-    	dy = 0;
+    	setVelocityX(0);
+    	setVelocityY(0);
     }
 
     /**
@@ -331,7 +485,7 @@ public class Sprite {
     {
     	if (!render) return;
 
-    	g.drawImage(getImage(),(int)x+xoff,(int)y+yoff, (int)width, (int)height, null);
+    	g.drawImage(getImage(),(int)getDrawX()+xoff,(int)getDrawY()+yoff, (int)width, (int)height, null);
     }
 
 	/**
@@ -347,14 +501,14 @@ public class Sprite {
 
     	AffineTransform transform = new AffineTransform();
 
-    	float xPos = Math.round(x)+xoff;
+    	float xPos = Math.round(getDrawX())+xoff;
         if (flipX == -1) {
-            xPos = xPos + getImage().getWidth(null);
+            xPos = xPos + getWidth();
         }
 
-        transform.translate(xPos,Math.round(y)+yoff);
+        transform.translate(xPos,Math.round(getDrawY())+yoff);
 		transform.scale(scale * flipX,scale);
-		transform.rotate(rotation,getImage().getWidth(null)/2,getImage().getHeight(null)/2);
+		transform.rotate(rotation,getWidth()/2,getHeight()/2);
 
 		// Apply transform to the image and draw it
 		g.drawImage(getImage(),transform,null);
@@ -364,12 +518,29 @@ public class Sprite {
 	/**
 		Hide the sprite.
 	*/
-    public void hide()  {	render = false;  }
+    public void hide()
+    {
+    	render = false;
+    	if (store != null) store.flags[index] &= ~EntityStore.VISIBLE;
+    }
 
 	/**
-		Show the sprite
+		Show the sprite. It is drawn at its current position
+		until the next update, rather than interpolated from
+		wherever it was last hidden.
 	*/
-    public void show()  {  	render = true;   }
+    public void show()
+    {
+    	render = true;
+    	if (store == null) {
+    		prevX = x;
+    		prevY = y;
+    	} else {
+    		store.flags[index] |= EntityStore.VISIBLE;
+    		store.prevX[index] = store.x[index];
+    		store.prevY[index] = store.y[index];
+    	}
+    }
 
 	/**
 		Check the visibility status of the sprite.
@@ -386,6 +557,16 @@ public class Sprite {
     	xoff = x;
     	yoff = y;
     }
+
+	/**
+		Get the x offset the sprite is drawn with.
+	*/
+    public int getOffsetX() { return xoff; }
+
+	/**
+		Get the y offset the sprite is drawn with.
+	*/
+    public int getOffsetY() { return yoff; }
     
 
 }
@@ -0,0 +1,110 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * A SpritePool keeps sprites that are no longer needed so they can be used
+ * again, rather than making a new sprite, with its sounds, each time one is
+ * needed. Subclasses say how to make a sprite with create(), and can put a
+ * returned sprite back to how it was made with reset().
+ *
+ * Pools can be shared between threads, e.g. a level built in the background
+ * can take enemies that the game loop handed back.
+ *
+ * @param <T> The kind of sprite in the pool
+ */
+public abstract class SpritePool<T extends Sprite> {
+
+	private Object [] free;			// Sprites ready to be handed out
+	private int freeCount = 0;
+	private int createdCount = 0;	// Every sprite the pool has made
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param capacity How many free sprites to make room for, the pool grows past this if needed
+	 */
+	public SpritePool(int capacity)
+	{
+		free = new Object[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Makes a new sprite for the pool.
+	 *
+	 * @return The new sprite
+	 */
+	protected abstract T create();
+
+	/**
+	 * Puts a sprite that has been handed back to the state it was made in.
+	 * Does nothing unless overridden.
+	 *
+	 * @param sprite The sprite to reset
+	 */
+	protected void reset(T sprite) {}
+
+	/**
+	 * Makes sprites until at least 'count' are free, so they are ready
+	 * before they are needed.
+	 *
+	 * @param count How many free sprites to have
+	 */
+	public synchronized void prewarm(int count)
+	{
+		while (freeCount < count)
+		{
+			createdCount++;
+			push(create());
+		}
+	}
+
+	/**
+	 * Takes a free sprite, or makes one if none are free. The sprite is in
+	 * the state create() made it in, hidden until it is shown.
+	 *
+	 * @return The sprite
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T acquire()
+	{
+		if (freeCount == 0)
+		{
+			createdCount++;
+			return create();
+		}
+		T sprite = (T)free[--freeCount];
+		free[freeCount] = null;
+		return sprite;
+	}
+
+	/**
+	 * Hands a sprite back to the pool. It is hidden and reset, and
+	 * shouldn't be used again until acquire() gives it out.
+	 *
+	 * @param sprite The sprite, which must have come from this pool
+	 */
+	public synchronized void release(T sprite)
+	{
+		sprite.hide();
+		reset(sprite);
+		push(sprite);
+	}
+
+	/**
+	 * @return The number of sprites ready to be handed out
+	 */
+	public synchronized int getFreeCount() { return freeCount; }
+
+	/**
+	 * @return The number of sprites the pool has made
+	 */
+	public synchronized int getCreatedCount() { return createdCount; }
+
+	private void push(T sprite)
+	{
+		if (freeCount == free.length)
+			free = Arrays.copyOf(free, freeCount * 2);
+		free[freeCount++] = sprite;
+	}
+}
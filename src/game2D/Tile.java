@@ -1,55 +1,56 @@
 package game2D;
 
 /**
- * A Tile in the TileMap.
+ * A Tile in the TileMap. The map only stores a tile id for each position,
+ * so a Tile is a view of one position in it rather than a copy.
  * 
  * @author David Cairns
  *
  */
 public class Tile {
 
-	private char character=' ';	// The character associated with this tile
-	private int xc=0;			// The tile's x coordinate in pixels
-	private int yc=0;			// The tile's y coordinate in pixels
+	private TileMap map;		// The map this tile is part of
+	private int col=0;			// The tile's x coordinate in tiles
+	private int row=0;			// The tile's y coordinate in tiles
  	
 	/**
-	 * Create an instance of a tile
-	 * @param c	The character associated with this tile
-	 * @param x The x tile coordinate in pixels
-	 * @param y The y tile coordinate in pixels
+	 * Create a view of a tile in a map
+	 * @param map The map the tile is in
+	 * @param col The x tile coordinate (in tiles, not pixels)
+	 * @param row The y tile coordinate (in tiles, not pixels)
 	 */
-	public Tile(char c, int x, int y)
+	public Tile(TileMap map, int col, int row)
 	{
-		character = c;
-		xc = x;
-		yc = y;
+		this.map = map;
+		this.col = col;
+		this.row = row;
 	}
 
 	/**
 	 * @return The character for this tile
 	 */
 	public char getCharacter() {
-		return character;
+		return map.getTileChar(col,row);
 	}
 
 	/**
 	 * @param character The character to set the tile to
 	 */
 	public void setCharacter(char character) {
-		this.character = character;
+		map.setTileChar(character,col,row);
 	}
 
 	/**
 	 * @return The x coordinate (in pixels)
 	 */
 	public int getXC() {
-		return xc;
+		return col * map.getTileWidth();
 	}
 
 	/**
 	 * @return The y coordinate (in pixels)
 	 */
 	public int getYC() {
-		return yc;
+		return row * map.getTileHeight();
 	}
 }
@@ -0,0 +1,214 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * TileChunkCache keeps pre-rendered images of square blocks of tiles
+ * (chunks) so a TileMap can be drawn with one drawImage per visible chunk
+ * rather than one per visible tile. A chunk is rendered the first time it
+ * comes into view and again only after one of its tiles changes. Chunks
+ * that have moved well out of view are released so long levels don't hold
+ * an image for every chunk.
+ *
+ * Tiles may be changed on one thread while the map is drawn on another:
+ * each chunk has a version that changes with its tiles, and a chunk is
+ * re-rendered whenever the version its image was rendered from is out of
+ * date, so a change made part way through rendering is never lost.
+ */
+class TileChunkCache {
+
+	static final int CHUNK_TILES = 16;		// Width and height of a chunk in tiles
+
+	private TileMap map;					// The map being cached
+	private int chunkCols = 0;				// The map's width in chunks
+	private int chunkRows = 0;				// The map's height in chunks
+	private int chunkWidth = 0;				// Width of a whole chunk in pixels
+	private int chunkHeight = 0;			// Height of a whole chunk in pixels
+
+	private Image[] images = new Image[0];	// Rendered chunks, null if not rendered or if the chunk is blank
+	private int[] originX = new int[0];	// Pixel offset of each chunk's image within the chunk,
+	private int[] originY = new int[0];	// as images are trimmed to the tiles that have images
+	private int[] rendered = new int[0];	// The version each chunk was last rendered from, -1 if never
+	private AtomicIntegerArray versions = new AtomicIntegerArray(0);	// Bumped whenever a tile in a chunk changes
+
+	private int[] cached = new int[0];		// Indexes of the chunks currently holding an image
+	private int cachedCount = 0;
+
+	/**
+	 * Create a cache for 'map'. reset() must be called once the map is loaded.
+	 */
+	TileChunkCache(TileMap map)
+	{
+		this.map = map;
+	}
+
+	/**
+	 * Throws away every chunk and sizes the cache for the map's current dimensions.
+	 */
+	void reset()
+	{
+		for (int i=0; i<cachedCount; i++)
+			images[cached[i]].flush();
+
+		chunkCols = (map.getMapWidth() + CHUNK_TILES - 1) / CHUNK_TILES;
+		chunkRows = (map.getMapHeight() + CHUNK_TILES - 1) / CHUNK_TILES;
+		chunkWidth = CHUNK_TILES * map.getTileWidth();
+		chunkHeight = CHUNK_TILES * map.getTileHeight();
+
+		int count = chunkCols * chunkRows;
+		images = new Image[count];
+		originX = new int[count];
+		originY = new int[count];
+		rendered = new int[count];
+		Arrays.fill(rendered, -1);
+		versions = new AtomicIntegerArray(count);
+		cached = new int[count];
+		cachedCount = 0;
+	}
+
+	/**
+	 * Marks the chunk holding tile 'x,y' as needing to be rendered again.
+	 */
+	void invalidate(int x, int y)
+	{
+		int i = (y / CHUNK_TILES) * chunkCols + x / CHUNK_TILES;
+		if (i < versions.length()) versions.incrementAndGet(i);
+	}
+
+	/**
+	 * Draws the chunks that overlap the clip of 'g', rendering any that are
+	 * missing or out of date first, then releases chunks that are more than
+	 * one chunk away from the visible ones.
+	 * 
+	 * @param g The graphics device to draw to
+	 * @param xoff The xoffset to shift the tile map by
+	 * @param yoff The yoffset to shift the tile map by
+	 */
+	void draw(Graphics2D g, int xoff, int yoff)
+	{
+		if (images.length == 0) return;
+
+		int firstCol = 0, lastCol = chunkCols - 1;
+		int firstRow = 0, lastRow = chunkRows - 1;
+		Rectangle clip = g.getClipBounds();
+		if (clip != null)
+		{
+			firstCol = Math.max(firstCol, Math.floorDiv(clip.x - xoff, chunkWidth));
+			lastCol = Math.min(lastCol, Math.floorDiv(clip.x + clip.width - 1 - xoff, chunkWidth));
+			firstRow = Math.max(firstRow, Math.floorDiv(clip.y - yoff, chunkHeight));
+			lastRow = Math.min(lastRow, Math.floorDiv(clip.y + clip.height - 1 - yoff, chunkHeight));
+		}
+
+		for (int r=firstRow; r<=lastRow; r++)
+		{
+			for (int c=firstCol; c<=lastCol; c++)
+			{
+				int i = r * chunkCols + c;
+				int version = versions.get(i);
+				if (rendered[i] != version)
+				{
+					render(g, i, c, r);
+					// chunks of a streamed region that hasn't loaded yet are rendered again once it has
+					if (map.isLoaded(c * CHUNK_TILES, (c + 1) * CHUNK_TILES - 1))
+						rendered[i] = version;
+				}
+				if (images[i] != null)
+					g.drawImage(images[i], xoff + c * chunkWidth + originX[i], yoff + r * chunkHeight + originY[i], null);
+			}
+		}
+
+		evict(firstCol - 1, lastCol + 1, firstRow - 1, lastRow + 1);
+	}
+
+	/**
+	 * Renders the tiles of chunk 'c,r' into its image. The image only covers
+	 * the tiles in the chunk that have images, since blending blank space
+	 * still costs time when drawing, and chunks with no tile images are left
+	 * without an image.
+	 */
+	private void render(Graphics2D g, int i, int c, int r)
+	{
+		int tileWidth = map.getTileWidth();
+		int tileHeight = map.getTileHeight();
+
+		// Find the tiles in the chunk that have images
+		int startCol = Integer.MAX_VALUE, startRow = Integer.MAX_VALUE;
+		int endCol = -1, endRow = -1;
+		int lastCol = Math.min((c + 1) * CHUNK_TILES, map.getMapWidth());
+		int lastRow = Math.min((r + 1) * CHUNK_TILES, map.getMapHeight());
+		for (int y=r * CHUNK_TILES; y<lastRow; y++)
+		{
+			for (int x=c * CHUNK_TILES; x<lastCol; x++)
+			{
+				if (map.getDrawnImage(x, y) == null) continue;
+				startCol = Math.min(startCol, x);
+				startRow = Math.min(startRow, y);
+				endCol = Math.max(endCol, x + 1);
+				endRow = Math.max(endRow, y + 1);
+			}
+		}
+
+		release(i);
+		if (endCol < 0) return;
+
+		images[i] = g.getDeviceConfiguration().createCompatibleImage(
+				(endCol - startCol) * tileWidth, (endRow - startRow) * tileHeight, Transparency.TRANSLUCENT);
+		originX[i] = (startCol - c * CHUNK_TILES) * tileWidth;
+		originY[i] = (startRow - r * CHUNK_TILES) * tileHeight;
+		cached[cachedCount++] = i;
+
+		Graphics2D cg = (Graphics2D)images[i].getGraphics();
+		for (int y=startRow; y<endRow; y++)
+		{
+			for (int x=startCol; x<endCol; x++)
+			{
+				Image img = map.getDrawnImage(x, y);
+				if (img != null)
+					cg.drawImage(img, (x - startCol) * tileWidth, (y - startRow) * tileHeight, null);
+			}
+		}
+		cg.dispose();
+	}
+
+	/**
+	 * Releases the images of cached chunks outside the given range of chunks.
+	 */
+	private void evict(int firstCol, int lastCol, int firstRow, int lastRow)
+	{
+		for (int n=cachedCount-1; n>=0; n--)
+		{
+			int i = cached[n];
+			int c = i % chunkCols;
+			int r = i / chunkCols;
+			if (c < firstCol || c > lastCol || r < firstRow || r > lastRow)
+			{
+				release(i);
+				rendered[i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Frees the image of chunk 'i', if it has one.
+	 */
+	private void release(int i)
+	{
+		if (images[i] == null) return;
+
+		images[i].flush();
+		images[i] = null;
+		for (int n=0; n<cachedCount; n++)
+		{
+			if (cached[n] == i)
+			{
+				cached[n] = cached[--cachedCount];
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package game2D;
+
+/**
+ * TileHit describes where a ray or a moving box first touched a solid tile,
+ * as found by TileMap.raycast() or TileMap.sweep(). The same object can be
+ * passed to every query so that checking collisions does not allocate.
+ */
+public class TileHit {
+
+	private int col;				// The tile that was hit
+	private int row;
+	private float time;				// How far along the movement the hit happened, 0 to 1
+	private float x;				// The map position of the ray or box at the hit, in pixels
+	private float y;
+	private int normalX;			// The side of the tile that was hit, pointing back along the movement
+	private int normalY;
+
+	/**
+	 * Fills in the hit, called by the TileMap queries.
+	 */
+	void set(int col, int row, float time, float x, float y, int normalX, int normalY)
+	{
+		this.col = col;
+		this.row = row;
+		this.time = time;
+		this.x = x;
+		this.y = y;
+		this.normalX = normalX;
+		this.normalY = normalY;
+	}
+
+	/**
+	 * @return The column of the tile that was hit
+	 */
+	public int getCol() { return col; }
+
+	/**
+	 * @return The row of the tile that was hit
+	 */
+	public int getRow() { return row; }
+
+	/**
+	 * @return The fraction of the movement made before the hit, 0 if it started inside a solid tile
+	 */
+	public float getTime() { return time; }
+
+	/**
+	 * @return The x position of the ray, or the box's top left corner, at the hit
+	 */
+	public float getX() { return x; }
+
+	/**
+	 * @return The y position of the ray, or the box's top left corner, at the hit
+	 */
+	public float getY() { return y; }
+
+	/**
+	 * @return -1 or 1 if the left or right side of the tile was hit, otherwise 0
+	 */
+	public int getNormalX() { return normalX; }
+
+	/**
+	 * @return -1 or 1 if the top or bottom of the tile was hit, otherwise 0
+	 */
+	public int getNormalY() { return normalY; }
+
+	/**
+	 * Summarise the hit so it can be printed
+	 */
+	public String toString()
+	{
+		return String.format("tile %d,%d at %.3f (%.1f,%.1f) normal %d,%d", col, row, time, x, y, normalX, normalY);
+	}
+}
@@ -2,9 +2,15 @@ package game2D;
 
 import javax.swing.ImageIcon;
 import java.awt.*;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.io.*;
 
 
 
@@ -18,10 +24,11 @@ import java.io.*;
 // tile mappings is then provided where each character is preceded by a
 // # character. The dot character always defaults to a blank space 
 // Note that the referenced files should be in the same directory as the
-// tile map.
-#b=orangeblock.png
-#c=greencircle.png
-#g=glasses.png
+// tile map. Each mapping can be followed by flags for the tile: solid,
+// oneway (can only be landed on from above) and hazard.
+#b=orangeblock.png solid
+#c=greencircle.png oneway
+#g=glasses.png hazard
 // The actual tile map is preceded by the #map line
 #map
 bbbbbbbbbb
@@ -36,15 +43,39 @@ bbbbbbbbbb
 public class TileMap 
 {
 
-	private Tile [][] tmap;		// The tile map grid, initially null
+	public static final int SOLID = 1;		// Tile blocks movement
+	public static final int ONE_WAY = 2;	// Tile can only be landed on from above
+	public static final int HAZARD = 4;		// Tile hurts whatever touches it
+
+	private static final int MAX_TILE_TYPES = 256;	// Tile ids are stored in a byte
+	private static final String [] FLAG_NAMES = { "solid", "oneway", "hazard" };	// Map file names of each flag bit
+
+	public static final String COMPILED_EXTENSION = ".bmap";	// Maps with this extension are in the compiled format
+	private static final int COMPILED_MAGIC = 0x4144544D;		// "ADTM", the first four bytes of a compiled map
+	private static final int COMPILED_VERSION = 1;
+
+	// Tile images already decoded, by path, shared by every map so reloading a level doesn't decode them again
+	private static final Map<String,Image> imageCache = new HashMap<String,Image>();
+
+	private byte [] tiles;		// Tile ids in row-major order (row * mapWidth + col), null if not loaded or streamed
+	private TileRegions regions;	// The tile ids of a streamed map, null unless streaming
+	private char [] idChars = new char[MAX_TILE_TYPES];	// The character each tile id stands for
+	private int tileTypes=0;	// The number of tile ids in use, id 0 is always '.'
 	private int mapWidth=0;		// The maps width in tiles
 	private int mapHeight=0;	// The maps height in tiles
 	private int tileWidth=0;	// The width of a tile in pixels
 	private int tileHeight=0;	// The height of a tile in pixels
 	
-	// imagemap contains a set of character to image mappings for
-	// quick loop up of the image associated with a given character.
-	private Map<String,Image> imagemap = new HashMap<String,Image>();
+	// idImages holds the image for each tile id for quick look up of the
+	// image to draw at a position, null for ids with no image
+	private Image [] idImages = new Image[MAX_TILE_TYPES];
+	// idFlags holds the SOLID, ONE_WAY and HAZARD flags for each tile id
+	private int [] idFlags = new int[MAX_TILE_TYPES];
+	// idFiles holds the image file name each tile id was mapped to, so the map can be compiled
+	private String [] idFiles = new String[MAX_TILE_TYPES];
+
+	private TileChunkCache chunks = new TileChunkCache(this);	// Pre-rendered blocks of tiles
+	private boolean chunkCaching = true;	// true to draw from the chunk cache rather than tile by tile
 	
 	/**
 	 * @return The map height in tiles
@@ -90,7 +121,8 @@ public class TileMap
 	
 	/**
 	 * Loads a 'mapfile' that is contained in the given 'folder'. It is expected that
-	 * the images associated with the map will also be in 'folder'.
+	 * the images associated with the map will also be in 'folder'. Files ending in
+	 * COMPILED_EXTENSION are loaded as compiled maps, anything else as text.
 	 *  
 	 * @param folder The folder the tile map and images are located in
 	 * @param mapfile The name of the map file in the map folder
@@ -98,6 +130,9 @@ public class TileMap
 	 */
 	public boolean loadMap(String folder, String mapfile)
 	{
+		if (mapfile.endsWith(COMPILED_EXTENSION))
+			return loadCompiledMap(folder, mapfile, 0, 0);
+
 		// Create a full path to the tile map by sticking the folder and mapfile together
 		String path = folder + "/" + mapfile;
 		int row=0;
@@ -109,8 +144,8 @@ public class TileMap
 			String trimmed="";
 			String [] vals;
 			
-			// First we need to clear out the old image map
-			imagemap.clear();
+			// First we need to clear out the old image map and tile ids
+			clearTileTypes();
 			
 			// Read the first line of the tile map to find out
 			// the relevant dimensions of the map plus the tiles
@@ -143,23 +178,35 @@ public class TileMap
 				{
 					// Extract the character
 					
-					String ch = "" + trimmed.charAt(1);
-					// and it's file name
-					String fileName = trimmed.substring(3,trimmed.length());
+					char ch = trimmed.charAt(1);
+					// and it's file name, followed by any flags
+					String [] parts = trimmed.substring(3,trimmed.length()).split("\\s+");
+					String fileName = parts[0];
 					
-					Image img  = new ImageIcon(folder + "/" + fileName).getImage();
-					// Now add this character->image mapping to the map
-					if (img != null)
-						imagemap.put(ch,img);
-					else
-						System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+					Image img  = loadTileImage(folder + "/" + fileName);
+					// Now add this character->image mapping to the map, the blank
+					// character '.' never has an image
+					int id = tileId(ch);
+					if (id < 0)
+						System.err.println("Too many tile characters, ignoring '" + ch + "'");
+					else if (id != 0)
+					{
+						if (img != null)
+							idImages[id] = img;
+						else
+							System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+						idFiles[id] = fileName;
+						idFlags[id] = parseFlags(parts, ch);
+					}
 				}
 			}
 			
 			// Check the map dimensione are at least > 0
 			if ((mapWidth > 0) && (mapHeight > 0))
 			{
-				tmap = new Tile[mapWidth][mapHeight]; 
+				closeRegions();
+				tiles = new byte[mapWidth * mapHeight];
+				chunks.reset();
 			}
 			else
 			{
@@ -182,8 +229,13 @@ public class TileMap
 						continue;
 					}
 					
+					int start = row * mapWidth;
 					for (int col=0; col<mapWidth && col<line.length(); col++)
-						tmap[col][row] = new Tile(line.charAt(col),col*tileWidth,row*tileHeight);
+					{
+						int id = tileId(line.charAt(col));
+						if (id < 0) throw new IOException("More than " + MAX_TILE_TYPES + " tile characters in map");
+						tiles[start + col] = (byte)id;
+					}
 					row++;
 					
 					if (row >= mapHeight) break;
@@ -208,16 +260,336 @@ public class TileMap
 		return true;
 	}
 	
+	/**
+	 * Finds the id used to store 'ch', giving it a new id if it hasn't been seen before.
+	 * 
+	 * @param ch The tile character
+	 * @return The id for 'ch', or -1 if all the ids are in use
+	 */
+	private int tileId(char ch)
+	{
+		for (int id=0; id<tileTypes; id++)
+			if (idChars[id] == ch) return id;
+
+		if (tileTypes == MAX_TILE_TYPES) return -1;
+		idChars[tileTypes] = ch;
+		return tileTypes++;
+	}
+
+	/**
+	 * Opens a compiled map without loading its tile grid. The map is split
+	 * into regions 'regionColumns' tiles wide which are loaded as
+	 * streamAround() is told the camera is getting close to them, and
+	 * dropped again, least recently used first, when more than 'maxRegions'
+	 * are in memory. This lets levels be far wider than would fit in memory
+	 * at once. Everything else about the map works as if it were loaded
+	 * whole, reading a tile that hasn't been streamed in just loads its
+	 * region there and then. Only drawing shows a region that isn't loaded
+	 * yet as blank until it arrives. holdAround() and preload() get the
+	 * regions sprites are in ready so reading them doesn't wait on the disk.
+	 * 
+	 * @param folder The folder the map and its images are located in
+	 * @param mapfile The name of the compiled map file in the folder
+	 * @param regionColumns The width of a region in tiles
+	 * @param maxRegions The number of regions to keep in memory
+	 * @return true if the map opened successfully, false otherwise
+	 */
+	public boolean openStreamingMap(String folder, String mapfile, int regionColumns, int maxRegions)
+	{
+		if (regionColumns <= 0 || maxRegions <= 0)
+			throw new IllegalArgumentException("Region width and count must be positive");
+		return loadCompiledMap(folder, mapfile, regionColumns, maxRegions);
+	}
+
+	/**
+	 * Tells a streamed map where the camera is, so the regions in view and
+	 * the ones either side of them are loaded in the background before they
+	 * are needed, and regions far from view can be dropped. Does nothing for
+	 * maps that are loaded whole.
+	 * 
+	 * @param pixelX The map x coordinate of the left edge of the view in pixels
+	 * @param pixelWidth The width of the view in pixels
+	 */
+	public void streamAround(int pixelX, int pixelWidth)
+	{
+		if (regions == null) return;
+		regions.update(Math.floorDiv(pixelX, tileWidth), Math.floorDiv(pixelX + pixelWidth - 1, tileWidth), 1);
+	}
+
+	/**
+	 * Keeps the regions of a streamed map under a sprite loaded, wherever it
+	 * is, so its tile checks don't wait on the disk. The regions a tile either
+	 * side of it are loaded too, ready for it to move into. Needs calling
+	 * each tick before streamAround(), and does nothing for maps loaded whole.
+	 * 
+	 * @param pixelX The map x coordinate of the sprite's left edge in pixels
+	 * @param pixelWidth The width of the sprite in pixels
+	 */
+	public void holdAround(int pixelX, int pixelWidth)
+	{
+		if (regions == null) return;
+		regions.hold(Math.floorDiv(pixelX, tileWidth) - 1, Math.floorDiv(pixelX + pixelWidth - 1, tileWidth) + 1);
+	}
+
+	/**
+	 * Loads the regions of a streamed map under a span of the map here and
+	 * now, rather than in the background. Meant for a level being built off
+	 * the game loop, so the places it starts from are loaded before it is
+	 * played. Does nothing for maps loaded whole.
+	 * 
+	 * @param pixelX The map x coordinate of the left edge of the span in pixels
+	 * @param pixelWidth The width of the span in pixels
+	 */
+	public void preload(int pixelX, int pixelWidth)
+	{
+		if (regions == null) return;
+		regions.preload(Math.floorDiv(pixelX, tileWidth) - 1, Math.floorDiv(pixelX + pixelWidth - 1, tileWidth) + 1);
+	}
+
+	/**
+	 * @return true if the tiles in the columns from 'firstCol' to 'lastCol' are in memory, always for maps loaded whole
+	 */
+	boolean isLoaded(int firstCol, int lastCol)
+	{
+		return regions == null || regions.isLoaded(firstCol, lastCol);
+	}
+
+	/**
+	 * @return true if the map was opened with openStreamingMap()
+	 */
+	public boolean isStreaming() { return regions != null; }
+
+	/**
+	 * @return How many tile reads of a streamed map had to wait for their region to load
+	 */
+	public int getStreamMisses() { return regions == null ? 0 : regions.getMisses(); }
+
+	/**
+	 * Loads a map written by saveCompiledMap(). The tile grid is read straight
+	 * out of a memory mapped view of the file with a single bulk copy, so
+	 * loading costs little more than reading the file no matter how big the
+	 * map is. When streaming, only the header is read here and the grid is
+	 * read region by region later.
+	 * 
+	 * @param folder The folder the map and its images are located in
+	 * @param mapfile The name of the compiled map file in the folder
+	 * @param regionColumns The width of a streamed region, 0 to load the whole grid
+	 * @param maxRegions The number of streamed regions to keep in memory
+	 * @return true if the map loaded successfully, false otherwise
+	 */
+	private boolean loadCompiledMap(String folder, String mapfile, int regionColumns, int maxRegions)
+	{
+		String path = folder + "/" + mapfile;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != COMPILED_MAGIC)
+				throw new IOException("not a compiled tile map");
+			int version = buffer.getShort();
+			if (version != COMPILED_VERSION)
+				throw new IOException("unsupported compiled map version " + version);
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int tw = buffer.getInt();
+			int th = buffer.getInt();
+			int types = buffer.getShort() & 0xFFFF;
+			if (width <= 0 || height <= 0 || types < 1 || types > MAX_TILE_TYPES)
+				throw new IOException("bad header");
+
+			clearTileTypes();
+			for (int id=0; id<types; id++)
+			{
+				char ch = buffer.getChar();
+				int flags = buffer.getInt();
+				byte [] name = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(name);
+
+				if (id == 0 && ch != '.')
+					throw new IOException("tile id 0 must be '.'");
+				if (id > 0 && tileId(ch) != id)
+					throw new IOException("tile character '" + ch + "' listed twice");
+				if (name.length > 0)
+				{
+					idFiles[id] = new String(name, StandardCharsets.UTF_8);
+					idImages[id] = loadTileImage(folder + "/" + idFiles[id]);
+				}
+				idFlags[id] = flags;
+			}
+
+			if (buffer.remaining() < (long)width * height)
+				throw new IOException("tile grid is cut short");
+
+			byte [] grid = null;
+			if (regionColumns == 0)
+			{
+				grid = new byte[width * height];
+				buffer.get(grid);
+				for (int i=0; i<grid.length; i++)
+					if ((grid[i] & 0xFF) >= types)
+						throw new IOException("unknown tile id " + (grid[i] & 0xFF));
+			}
+
+			closeRegions();
+			mapWidth = width;
+			mapHeight = height;
+			tileWidth = tw;
+			tileHeight = th;
+			tiles = grid;
+			if (grid == null)
+				regions = new TileRegions(buffer, width, height, types, regionColumns, maxRegions);
+			chunks.reset();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to read in compiled tile map '" + path + "':" + e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes the map in the compiled format read by loadMap() for files ending
+	 * in COMPILED_EXTENSION: a header, a table of tile characters with their
+	 * flags and image files, then one byte per tile in row-major order. The
+	 * images are expected to be in the same folder as the compiled map.
+	 * 
+	 * @param path Where to write the compiled map
+	 * @throws IOException If the file can't be written
+	 */
+	public void saveCompiledMap(String path) throws IOException
+	{
+		if (tiles == null)
+			throw new IllegalStateException("Only maps loaded whole can be compiled");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))))
+		{
+			out.writeInt(COMPILED_MAGIC);
+			out.writeShort(COMPILED_VERSION);
+			out.writeInt(mapWidth);
+			out.writeInt(mapHeight);
+			out.writeInt(tileWidth);
+			out.writeInt(tileHeight);
+			out.writeShort(tileTypes);
+			for (int id=0; id<tileTypes; id++)
+			{
+				byte [] name = idFiles[id] == null ? new byte[0] : idFiles[id].getBytes(StandardCharsets.UTF_8);
+				out.writeChar(idChars[id]);
+				out.writeInt(idFlags[id]);
+				out.writeShort(name.length);
+				out.write(name);
+			}
+			out.write(tiles);
+		}
+	}
+
+	/**
+	 * Stops streaming the previous map, if it was streamed.
+	 */
+	private void closeRegions()
+	{
+		if (regions == null) return;
+		regions.close();
+		regions = null;
+	}
+
+	/**
+	 * Gets the id of the tile at 'x,y', which must be a valid position.
+	 */
+	private int tileIdAt(int x, int y)
+	{
+		if (tiles != null) return tiles[y * mapWidth + x] & 0xFF;
+
+		int columns = regions.getRegionColumns();
+		return regions.get(x / columns)[y * columns + x % columns] & 0xFF;
+	}
+
+	/**
+	 * Gets the id of the tile at 'x,y' to draw, which must be a valid
+	 * position. Tiles of streamed regions that aren't loaded yet are drawn
+	 * blank rather than waiting for them.
+	 */
+	private int drawnIdAt(int x, int y)
+	{
+		if (tiles != null) return tiles[y * mapWidth + x] & 0xFF;
+
+		int columns = regions.getRegionColumns();
+		byte [] region = regions.peek(x / columns);
+		return region == null ? 0 : region[y * columns + x % columns] & 0xFF;
+	}
+
+	/**
+	 * Forgets every tile type apart from the blank tile '.', which is always id 0.
+	 */
+	private void clearTileTypes()
+	{
+		Arrays.fill(idImages, null);
+		Arrays.fill(idFlags, 0);
+		Arrays.fill(idFiles, null);
+		tileTypes = 0;
+		tileId('.');
+	}
+
+	/**
+	 * Loads a tile image, or returns it from the cache if it has been loaded before.
+	 * 
+	 * @param path The path of the image file
+	 * @return The image, fully loaded
+	 */
+	private static Image loadTileImage(String path)
+	{
+		synchronized (imageCache)
+		{
+			Image img = imageCache.get(path);
+			if (img == null)
+			{
+				img = new ImageIcon(path).getImage();
+				imageCache.put(path, img);
+			}
+			return img;
+		}
+	}
+
+	/**
+	 * Works out the flags named after the file name in a character mapping.
+	 * 
+	 * @param parts The file name followed by flag names
+	 * @param ch The character being mapped, for error messages
+	 * @return The flags combined into a bit set
+	 */
+	private int parseFlags(String [] parts, char ch)
+	{
+		int flags = 0;
+		for (int i=1; i<parts.length; i++)
+		{
+			int bit = Arrays.asList(FLAG_NAMES).indexOf(parts[i]);
+			if (bit < 0)
+				System.err.println("Unknown tile flag '" + parts[i] + "' for '" + ch + "'");
+			else
+				flags |= 1 << bit;
+		}
+		return flags;
+	}
+
 	/**
 	 * Generate the tile map as a String so we can inspect its current state
 	 */
 	public String toString()
 	{
-		StringBuffer s = new StringBuffer();
+		// Printing a streamed map would mean loading all of it
+		if (regions != null)
+			return mapWidth + "x" + mapHeight + " streamed map, " + regions.getResident() + " of "
+					+ regions.getRegionCount() + " regions loaded, " + regions.getMisses() + " misses\n";
+
+		StringBuilder s = new StringBuilder((mapWidth + 1) * mapHeight);
 		for (int r=0; r<mapHeight; r++)
 		{
+			int start = r * mapWidth;
 			for (int c=0; c<mapWidth; c++)
-				s.append(tmap[c][r].getCharacter());
+				s.append(idChars[tiles[start + c] & 0xFF]);
 	
 			s.append('\n');
 		}
@@ -234,11 +606,17 @@ public class TileMap
 	public Image getTileImage(int x, int y)
 	{
 		if (!valid(x,y)) return null;
-		Tile t = tmap[x][y];
-		if (t == null) return null;
-		char ch = t.getCharacter();
-		if (ch == '.') return null; // Blank space
-		return imagemap.get(ch + "");
+		return idImages[tileIdAt(x,y)];	// null for blank space
+	}
+
+	/**
+	 * Gets the image to draw for the tile at 'x,y', which is blank for a
+	 * streamed region that hasn't loaded yet rather than waiting for it.
+	 */
+	Image getDrawnImage(int x, int y)
+	{
+		if (!valid(x,y)) return null;
+		return idImages[drawnIdAt(x,y)];
 	}
 	
 	/**
@@ -251,7 +629,7 @@ public class TileMap
 	public int getTileXC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getXC();
+		return x * tileWidth;
 	}
 	
 	/**
@@ -264,7 +642,7 @@ public class TileMap
 	public int getTileYC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getYC();
+		return y * tileHeight;
 	}
 	
 	/**
@@ -289,7 +667,20 @@ public class TileMap
 	public boolean setTileChar(char ch, int x, int y)
 	{
 		if (!valid(x,y)) return false;
-		tmap[x][y].setCharacter(ch);
+		int id = tileId(ch);
+		if (id < 0) return false;
+		if (tiles != null)
+		{
+			if ((tiles[y * mapWidth + x] & 0xFF) == id) return true;
+			tiles[y * mapWidth + x] = (byte)id;
+		}
+		else
+		{
+			// The region is kept in memory from now on so the change isn't lost
+			int columns = regions.getRegionColumns();
+			if (!regions.set(x / columns, y * columns + x % columns, id)) return true;
+		}
+		chunks.invalidate(x,y);
 		return true;
 	}
 	
@@ -303,11 +694,205 @@ public class TileMap
 	public char getTileChar(int x, int y)
 	{
 		if (!valid(x,y)) return '?';
-		return tmap[x][y].getCharacter();
+		return idChars[tileIdAt(x,y)];
+	}
+
+	/**
+	 * Gets the flags of the tile at position 'x,y', declared alongside its image in the map file
+	 * 
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return Some combination of SOLID, ONE_WAY and HAZARD, 0 for blank tiles or positions off the map
+	 */
+	public int getTileFlags(int x, int y)
+	{
+		if (!valid(x,y)) return 0;
+		return idFlags[tileIdAt(x,y)];
+	}
+
+	/**
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return true if the tile at position 'x,y' blocks movement, false off the map
+	 */
+	public boolean isSolid(int x, int y)
+	{
+		return (getTileFlags(x,y) & SOLID) != 0;
+	}
+
+	/**
+	 * Follows a straight line across the map from 'x0,y0' to 'x1,y1' a tile
+	 * at a time and finds the first solid tile it enters. Only the tiles the
+	 * line passes through are looked at, however long it is.
+	 *
+	 * @param x0 The map x coordinate the line starts at, in pixels
+	 * @param y0 The map y coordinate the line starts at, in pixels
+	 * @param x1 The map x coordinate the line ends at, in pixels
+	 * @param y1 The map y coordinate the line ends at, in pixels
+	 * @param hit Filled in with the first solid tile on the line, if there is one
+	 * @return true if the line reaches a solid tile before 'x1,y1'
+	 */
+	public boolean raycast(float x0, float y0, float x1, float y1, TileHit hit)
+	{
+		if (tileWidth <= 0 || tileHeight <= 0) return false;
+
+		int col = (int)Math.floor(x0 / tileWidth);
+		int row = (int)Math.floor(y0 / tileHeight);
+		if (isSolid(col, row))
+		{
+			hit.set(col, row, 0.0f, x0, y0, 0, 0);
+			return true;
+		}
+
+		float dx = x1 - x0;
+		float dy = y1 - y0;
+		int stepX = dx > 0 ? 1 : -1;
+		int stepY = dy > 0 ? 1 : -1;
+
+		// How far along the line the next column and row boundaries are, and
+		// how far along it is from one boundary to the next
+		float tMaxX = Float.POSITIVE_INFINITY;
+		float tMaxY = Float.POSITIVE_INFINITY;
+		float tDeltaX = Float.POSITIVE_INFINITY;
+		float tDeltaY = Float.POSITIVE_INFINITY;
+		if (dx != 0)
+		{
+			tMaxX = ((dx > 0 ? col + 1 : col) * tileWidth - x0) / dx;
+			tDeltaX = tileWidth / Math.abs(dx);
+		}
+		if (dy != 0)
+		{
+			tMaxY = ((dy > 0 ? row + 1 : row) * tileHeight - y0) / dy;
+			tDeltaY = tileHeight / Math.abs(dy);
+		}
+
+		while (true)
+		{
+			float t;
+			int normalX = 0;
+			int normalY = 0;
+			if (tMaxX < tMaxY)
+			{
+				t = tMaxX;
+				col += stepX;
+				tMaxX += tDeltaX;
+				normalX = -stepX;
+			}
+			else
+			{
+				t = tMaxY;
+				row += stepY;
+				tMaxY += tDeltaY;
+				normalY = -stepY;
+			}
+			if (t > 1.0f) return false;
+
+			if (isSolid(col, row))
+			{
+				hit.set(col, row, t, x0 + dx * t, y0 + dy * t, normalX, normalY);
+				return true;
+			}
+		}
 	}
 
 	/**
-	 * Gets the tile object at position 'x,y'
+	 * Moves a box by 'dx,dy' across the map and finds the first solid tile
+	 * it runs into. Solid tiles the box already overlaps are ignored so a
+	 * box that has ended up inside a wall can still move out of it. The
+	 * game's own sprites don't use this yet, CollisionResolver still probes
+	 * points around them.
+	 *
+	 * @param x The map x coordinate of the box's left edge, in pixels
+	 * @param y The map y coordinate of the box's top edge, in pixels
+	 * @param w The width of the box in pixels
+	 * @param h The height of the box in pixels
+	 * @param dx How far the box moves on the x axis, in pixels
+	 * @param dy How far the box moves on the y axis, in pixels
+	 * @param hit Filled in with where the box stops and the side of the tile it hit, if it hits one
+	 * @return true if the box hits a solid tile before it has moved all the way
+	 */
+	public boolean sweep(float x, float y, float w, float h, float dx, float dy, TileHit hit)
+	{
+		if (tileWidth <= 0 || tileHeight <= 0) return false;
+
+		// Every tile the box could touch on the way
+		int firstCol = Math.max(0, (int)Math.floor(Math.min(x, x + dx) / tileWidth));
+		int lastCol = Math.min(mapWidth - 1, (int)Math.ceil(Math.max(x + w, x + w + dx) / tileWidth) - 1);
+		int firstRow = Math.max(0, (int)Math.floor(Math.min(y, y + dy) / tileHeight));
+		int lastRow = Math.min(mapHeight - 1, (int)Math.ceil(Math.max(y + h, y + h + dy) / tileHeight) - 1);
+
+		float best = Float.POSITIVE_INFINITY;
+		for (int row=firstRow; row<=lastRow; row++)
+		{
+			float top = row * tileHeight;
+			float bottom = top + tileHeight;
+
+			// When and whether the box overlaps this row of tiles on the y axis
+			float entryY, exitY;
+			if (dy > 0) { entryY = (top - (y + h)) / dy; exitY = (bottom - y) / dy; }
+			else if (dy < 0) { entryY = (bottom - y) / dy; exitY = (top - (y + h)) / dy; }
+			else if (y < bottom && y + h > top) { entryY = Float.NEGATIVE_INFINITY; exitY = Float.POSITIVE_INFINITY; }
+			else continue;
+
+			for (int col=firstCol; col<=lastCol; col++)
+			{
+				if (!isSolid(col, row)) continue;
+
+				float left = col * tileWidth;
+				float right = left + tileWidth;
+
+				float entryX, exitX;
+				if (dx > 0) { entryX = (left - (x + w)) / dx; exitX = (right - x) / dx; }
+				else if (dx < 0) { entryX = (right - x) / dx; exitX = (left - (x + w)) / dx; }
+				else if (x < right && x + w > left) { entryX = Float.NEGATIVE_INFINITY; exitX = Float.POSITIVE_INFINITY; }
+				else continue;
+
+				float entry = Math.max(entryX, entryY);
+				float exit = Math.min(exitX, exitY);
+				if (entry > exit || entry < 0.0f || entry > 1.0f || entry >= best) continue;
+
+				best = entry;
+				if (entryX > entryY)
+					hit.set(col, row, entry, x + dx * entry, y + dy * entry, dx > 0 ? -1 : 1, 0);
+				else
+					hit.set(col, row, entry, x + dx * entry, y + dy * entry, 0, dy > 0 ? -1 : 1);
+			}
+		}
+
+		return best <= 1.0f;
+	}
+
+	/**
+	 * Sets up 'overlap' to step through the solid tiles that overlap a
+	 * rectangle of the map. Tiles the rectangle only touches the edge of
+	 * are not included. Like sweep(), nothing in the game calls this yet.
+	 *
+	 * @param x The map x coordinate of the rectangle's left edge, in pixels
+	 * @param y The map y coordinate of the rectangle's top edge, in pixels
+	 * @param w The width of the rectangle in pixels
+	 * @param h The height of the rectangle in pixels
+	 * @param overlap The cursor to set up, call its next() method to get each tile
+	 * @return 'overlap', ready to use
+	 */
+	public TileOverlap overlapSolid(float x, float y, float w, float h, TileOverlap overlap)
+	{
+		if (tileWidth <= 0 || tileHeight <= 0 || w <= 0 || h <= 0)
+		{
+			overlap.begin(this, 0, 0, -1, -1);
+			return overlap;
+		}
+
+		int firstCol = Math.max(0, (int)Math.floor(x / tileWidth));
+		int lastCol = Math.min(mapWidth - 1, (int)Math.ceil((x + w) / tileWidth) - 1);
+		int firstRow = Math.max(0, (int)Math.floor(y / tileHeight));
+		int lastRow = Math.min(mapHeight - 1, (int)Math.ceil((y + h) / tileHeight) - 1);
+		overlap.begin(this, firstCol, firstRow, lastCol, lastRow);
+		return overlap;
+	}
+
+	/**
+	 * Gets a tile object for position 'x,y'. The tile is a view of the map,
+	 * so changes made through it are made to the map.
 	 * 
 	 * @param x The x tile coordinate (in tiles, not pixels)
 	 * @param y The y tile coordinate (in tiles, not pixels)
@@ -316,9 +901,22 @@ public class TileMap
 	public Tile getTile(int x, int y)
 	{
 		if (!valid(x,y)) return null;
-		return tmap[x][y];
+		return new Tile(this,x,y);
 	}
 	
+	/**
+	 * Chooses whether draw() blits pre-rendered blocks of tiles or draws each
+	 * visible tile itself when drawing to the screen. Caching is on by default
+	 * and is much cheaper for maps that rarely change. Drawing into an image
+	 * in memory always goes tile by tile.
+	 * 
+	 * @param enabled true to draw from the chunk cache
+	 */
+	public void setChunkCaching(boolean enabled)
+	{
+		chunkCaching = enabled;
+	}
+
 	/**
 	 * Draws the tile map to the graphics device pointed to by 'g'.
 	 * 
@@ -328,25 +926,40 @@ public class TileMap
 	 */
 	public void draw(Graphics2D g, int xoff, int yoff)
 	{
-		if (g == null) return;
+		if (g == null || (tiles == null && regions == null)) return;
 	
-		Image img=null;
-		Shape rect = g.getClip();
-		int xc,yc;
+		// Blitting chunks only beats drawing tiles when the chunk images can be
+		// kept on the graphics card. When drawing into an image in memory (e.g.
+		// a HeadlessRunner) every pixel of a chunk is blended in software, which
+		// costs more than drawing the tiles that aren't blank.
+		if (chunkCaching && g.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_IMAGE_BUFFER)
+		{
+			chunks.draw(g, xoff, yoff);
+			return;
+		}
+
+		// Work out which tiles fall inside the clip so only they are visited
+		int firstCol = 0, lastCol = mapWidth - 1;
+		int firstRow = 0, lastRow = mapHeight - 1;
+		Rectangle clip = g.getClipBounds();
+		if (clip != null)
+		{
+			firstCol = Math.max(firstCol, Math.floorDiv(clip.x - xoff, tileWidth));
+			lastCol = Math.min(lastCol, Math.floorDiv(clip.x + clip.width - 1 - xoff, tileWidth));
+			firstRow = Math.max(firstRow, Math.floorDiv(clip.y - yoff, tileHeight));
+			lastRow = Math.min(lastRow, Math.floorDiv(clip.y + clip.height - 1 - yoff, tileHeight));
+		}
 		
-		for (int r=0; r<mapHeight; r++)
+		byte [] grid = tiles;
+		for (int r=firstRow; r<=lastRow; r++)
 		{
-			for (int c=0; c<mapWidth; c++)
+			int start = r * mapWidth;
+			int yc = yoff + r*tileHeight;
+			for (int c=firstCol; c<=lastCol; c++)
 			{
-				img = getTileImage(c, r);
+				Image img = idImages[grid != null ? grid[start + c] & 0xFF : drawnIdAt(c, r)];
 				if (img == null) continue;
-				xc = xoff + c*tileWidth;
-				yc = yoff + r*tileHeight;
-				
-				// Only draw the tile if it is on screen, otherwise go back round the loop
-				if (xc+tileWidth < 0 || xc >= rect.getBounds().x + rect.getBounds().width) continue;
-				if (yc+tileHeight < 0 || yc >= rect.getBounds().y + rect.getBounds().height) continue;
-				g.drawImage(img,xc,yc,null);
+				g.drawImage(img,xoff + c*tileWidth,yc,null);
 			}
 		}		
 	}
@@ -0,0 +1,67 @@
+package game2D;
+
+/**
+ * TileOverlap steps through the solid tiles of a TileMap that overlap a
+ * rectangle, as set up by TileMap.overlapSolid(). Tiles are visited a row
+ * at a time from the top left. The same object can be reused for every
+ * query so that checking collisions does not allocate.
+ *
+ * <pre>
+ * while (overlap.next())
+ *     ... overlap.getCol(), overlap.getRow() ...
+ * </pre>
+ */
+public class TileOverlap {
+
+	private TileMap map;			// The map being searched, null when there is nothing to visit
+	private int firstCol;			// The range of tiles overlapping the rectangle, clipped to the map
+	private int lastCol;
+	private int lastRow;
+	private int col;				// The tile returned by the last call to next()
+	private int row;
+
+	/**
+	 * Starts visiting the tiles from 'firstCol,firstRow' to 'lastCol,lastRow'
+	 * inclusive, which must be on 'map'. Called by TileMap.overlapSolid().
+	 */
+	void begin(TileMap map, int firstCol, int firstRow, int lastCol, int lastRow)
+	{
+		this.map = (firstCol > lastCol || firstRow > lastRow) ? null : map;
+		this.firstCol = firstCol;
+		this.lastCol = lastCol;
+		this.lastRow = lastRow;
+		col = firstCol - 1;
+		row = firstRow;
+	}
+
+	/**
+	 * Moves on to the next solid tile.
+	 *
+	 * @return false once there are no more solid tiles in the rectangle
+	 */
+	public boolean next()
+	{
+		if (map == null) return false;
+
+		while (row <= lastRow)
+		{
+			while (++col <= lastCol)
+				if (map.isSolid(col, row)) return true;
+			col = firstCol - 1;
+			row++;
+		}
+
+		map = null;
+		return false;
+	}
+
+	/**
+	 * @return The column of the tile found by the last call to next()
+	 */
+	public int getCol() { return col; }
+
+	/**
+	 * @return The row of the tile found by the last call to next()
+	 */
+	public int getRow() { return row; }
+}
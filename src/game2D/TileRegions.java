@@ -0,0 +1,333 @@
+package game2D;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TileRegions holds the tile grid of a streamed TileMap. The map is split
+ * into regions a fixed number of columns wide, which are read from a memory
+ * mapped compiled map when the camera gets near them and dropped again,
+ * least recently used first, once more than a set number are in memory.
+ *
+ * Regions around the camera, and regions held for sprites elsewhere on the
+ * map, are loaded on a background thread so the game loop doesn't wait on
+ * the disk. A tile read from a region that isn't in memory still gets the
+ * right tile, the region is loaded there and then and counted as a miss.
+ * Only drawing uses peek(), which shows a region that isn't loaded yet as
+ * blank rather than waiting for it. A level being built off the game loop
+ * can preload the regions it starts in.
+ * Regions with tiles changed by setTileChar() are pinned in memory so the
+ * change isn't lost, and changes to a region that isn't loaded are kept
+ * until it is.
+ */
+class TileRegions {
+
+	// One loader thread shared by every streamed map
+	private static final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Tile region loader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private ByteBuffer file;				// The mapped compiled map
+	private int gridOffset;					// Where the tile grid starts in 'file'
+	private int mapWidth;					// The map's size in tiles
+	private int mapHeight;
+	private int tileTypes;					// Number of tile ids in use, larger ids in the file are corrupt
+	private int regionColumns;				// Width of a region in tiles
+	private int maxRegions;					// Regions to keep in memory before evicting
+
+	private AtomicReferenceArray<byte[]> regions;	// Tile ids of each region, row-major with a stride of regionColumns
+	private AtomicIntegerArray queued;		// 1 while a background load of a region is waiting or running
+	private AtomicInteger resident = new AtomicInteger();	// Regions currently in memory
+	private AtomicInteger misses = new AtomicInteger();		// Tile reads that found their region not loaded
+	private List<int[]> edits = new ArrayList<int[]>();	// Changes waiting for their region to load, {region, offset, id}
+
+	private long [] lastUsed;				// When each region was last near the camera or held, in calls to update()
+	private boolean [] pinned;				// Regions that have been changed and must not be evicted
+	private long clock = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param file The compiled map, positioned at the start of the tile grid
+	 * @param mapWidth The width of the map in tiles
+	 * @param mapHeight The height of the map in tiles
+	 * @param tileTypes The number of tile ids the map uses
+	 * @param regionColumns Width of a region in tiles
+	 * @param maxRegions Regions to keep in memory before evicting
+	 */
+	TileRegions(ByteBuffer file, int mapWidth, int mapHeight, int tileTypes, int regionColumns, int maxRegions)
+	{
+		this.file = file;
+		this.gridOffset = file.position();
+		this.mapWidth = mapWidth;
+		this.mapHeight = mapHeight;
+		this.tileTypes = tileTypes;
+		this.regionColumns = regionColumns;
+		this.maxRegions = maxRegions;
+
+		int count = (mapWidth + regionColumns - 1) / regionColumns;
+		regions = new AtomicReferenceArray<byte[]>(count);
+		queued = new AtomicIntegerArray(count);
+		lastUsed = new long[count];
+		pinned = new boolean[count];
+	}
+
+	/**
+	 * @return The width of a region in tiles
+	 */
+	int getRegionColumns() { return regionColumns; }
+
+	/**
+	 * Gets the tile ids of region 'i', loading it now if it isn't in memory.
+	 */
+	byte [] get(int i)
+	{
+		byte [] region = regions.get(i);
+		if (region != null) return region;
+
+		misses.incrementAndGet();
+		return load(i);
+	}
+
+	/**
+	 * Gets the tile ids of region 'i' for drawing. If it isn't in memory it
+	 * is queued to be loaded in the background and null is returned rather
+	 * than waiting.
+	 */
+	byte [] peek(int i)
+	{
+		byte [] region = regions.get(i);
+		if (region == null) queue(i);
+		return region;
+	}
+
+	/**
+	 * Sets the tile id at 'offset' in region 'i' and pins the region. If the
+	 * region isn't in memory the change is kept and made when it is loaded.
+	 * 
+	 * @return false if the tile already had that id
+	 */
+	boolean set(int i, int offset, int id)
+	{
+		synchronized (edits)
+		{
+			pinned[i] = true;
+			byte [] region = regions.get(i);
+			if (region != null)
+			{
+				if ((region[offset] & 0xFF) == id) return false;
+				region[offset] = (byte)id;
+				return true;
+			}
+			edits.add(new int[] {i, offset, id});
+		}
+		queue(i);
+		return true;
+	}
+
+	/**
+	 * Queues a background load of region 'i' if it isn't in memory or already queued.
+	 */
+	private void queue(int i)
+	{
+		if (regions.get(i) == null && queued.compareAndSet(i, 0, 1))
+			loader.execute(new Loader(i));
+	}
+
+	/**
+	 * Loads region 'i' unless another thread gets there first.
+	 */
+	private byte [] load(int i)
+	{
+		byte [] region = regions.get(i);
+		if (region != null) return region;
+
+		region = read(i);
+		synchronized (edits)
+		{
+			byte [] loaded = regions.get(i);
+			if (loaded != null) return loaded;
+
+			// make any changes that were waiting for the region
+			for (int e=edits.size()-1; e>=0; e--)
+			{
+				int [] edit = edits.get(e);
+				if (edit[0] != i) continue;
+				region[edit[1]] = (byte)edit[2];
+				edits.remove(e);
+			}
+			regions.set(i, region);
+			resident.incrementAndGet();
+			return region;
+		}
+	}
+
+	/**
+	 * Copies region 'i' out of the mapped file, one row at a time.
+	 */
+	private byte [] read(int i)
+	{
+		ByteBuffer b = file.duplicate();
+		int firstCol = i * regionColumns;
+		int width = Math.min(regionColumns, mapWidth - firstCol);
+		byte [] region = new byte[mapHeight * regionColumns];
+
+		for (int r=0; r<mapHeight; r++)
+		{
+			b.position(gridOffset + r * mapWidth + firstCol);
+			b.get(region, r * regionColumns, width);
+		}
+
+		for (int t=0; t<region.length; t++)
+		{
+			if ((region[t] & 0xFF) >= tileTypes)
+			{
+				System.err.println("Unknown tile id " + (region[t] & 0xFF) + " in streamed map, using blank");
+				region[t] = 0;
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * Keeps the regions overlapping the columns from 'firstCol' to 'lastCol'
+	 * in memory through the next update(), loading them in the background if
+	 * they aren't already. Used for sprites away from the camera.
+	 * 
+	 * @param firstCol The leftmost column to keep
+	 * @param lastCol The rightmost column to keep
+	 */
+	void hold(int firstCol, int lastCol)
+	{
+		int last = Math.min(regions.length() - 1, Math.floorDiv(lastCol, regionColumns));
+		for (int i=Math.max(0, Math.floorDiv(firstCol, regionColumns)); i<=last; i++)
+		{
+			lastUsed[i] = clock;
+			queue(i);
+		}
+	}
+
+	/**
+	 * Loads the regions overlapping the columns from 'firstCol' to 'lastCol'
+	 * on the calling thread and holds them, for a level that is being built
+	 * before the game loop is given it.
+	 * 
+	 * @param firstCol The leftmost column to load
+	 * @param lastCol The rightmost column to load
+	 */
+	void preload(int firstCol, int lastCol)
+	{
+		int last = Math.min(regions.length() - 1, Math.floorDiv(lastCol, regionColumns));
+		for (int i=Math.max(0, Math.floorDiv(firstCol, regionColumns)); i<=last; i++)
+		{
+			lastUsed[i] = clock;
+			load(i);
+		}
+	}
+
+	/**
+	 * Tells the regions where the camera is. Regions overlapping the columns
+	 * from 'firstCol' to 'lastCol', plus 'ahead' regions either side, are
+	 * loaded in the background if they aren't in memory, then regions are
+	 * evicted until no more than the budget remain. Regions held since the
+	 * last update() are never evicted, so the budget can be overrun while
+	 * sprites are spread over more regions than it allows.
+	 * 
+	 * @param firstCol The leftmost column in view
+	 * @param lastCol The rightmost column in view
+	 * @param ahead How many regions either side of the view to prefetch
+	 */
+	void update(int firstCol, int lastCol, int ahead)
+	{
+		int count = regions.length();
+		int first = Math.max(0, Math.floorDiv(firstCol, regionColumns) - ahead);
+		int last = Math.min(count - 1, Math.floorDiv(lastCol, regionColumns) + ahead);
+		clock++;
+
+		for (int i=first; i<=last; i++)
+		{
+			lastUsed[i] = clock;
+			queue(i);
+		}
+
+		while (resident.get() > maxRegions)
+		{
+			int victim = -1;
+			for (int i=0; i<count; i++)
+			{
+				if (lastUsed[i] >= clock - 1 || pinned[i] || regions.get(i) == null) continue;
+				if (victim < 0 || lastUsed[i] < lastUsed[victim]) victim = i;
+			}
+			if (victim < 0) break;
+
+			if (regions.getAndSet(victim, null) != null)
+				resident.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if every region overlapping the columns from 'firstCol' to 'lastCol' is in memory
+	 */
+	boolean isLoaded(int firstCol, int lastCol)
+	{
+		int last = Math.min(regions.length() - 1, Math.floorDiv(lastCol, regionColumns));
+		for (int i=Math.max(0, Math.floorDiv(firstCol, regionColumns)); i<=last; i++)
+			if (regions.get(i) == null) return false;
+		return true;
+	}
+
+	/**
+	 * @return The number of regions in memory
+	 */
+	int getResident() { return resident.get(); }
+
+	/**
+	 * @return The number of regions
+	 */
+	int getRegionCount() { return regions.length(); }
+
+	/**
+	 * @return How many tile reads had to load their region because it wasn't prefetched
+	 */
+	int getMisses() { return misses.get(); }
+
+	/**
+	 * Stops any queued loads from doing anything, used when the map is replaced.
+	 */
+	void close()
+	{
+		closed = true;
+	}
+
+	/**
+	 * Background load of one region.
+	 */
+	private class Loader implements Runnable {
+		private int region;
+
+		Loader(int region) { this.region = region; }
+
+		public void run()
+		{
+			try {
+				if (!closed) load(region);
+			}
+			catch (RuntimeException e) {
+				System.err.println("Failed to stream tile region " + region + ": " + e);
+			}
+			finally {
+				queued.set(region, 0);
+			}
+		}
+	}
+}
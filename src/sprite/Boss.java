@@ -1,10 +1,12 @@
 package sprite;
 
 import game2D.Animation;
+import game2D.RenderSnapshot;
 import game2D.Sprite;
 
 import java.awt.*;
 import java.security.SecureRandom;
+import java.util.Random;
 
 public class Boss extends Sprite {
 
@@ -17,16 +19,28 @@ public class Boss extends Sprite {
     private int health;
     private long attackTimer;
     private final short INIT_TIMER_VAL = 12000;
-    private SecureRandom rng = new SecureRandom();
+    private Random rng;
 
     public Boss() {
+        this(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Creates a boss whose attacks are placed by a generator started from
+     * 'seed', so the fight plays out the same way given the same input.
+     */
+    public Boss(long seed) {
         super();
+        rng = new Random(seed);
 
         animation.loadAnimationFromSheet(imagePath, 4, 1, 60);
+        animation.buildMasks();
         super.setAnimation(animation);
         attackAnimationTelegraph.loadAnimationFromSheet("images/telegraph_attack.png", 1, 1, 60);
+        attackAnimationTelegraph.buildMasks();
         attackTelegraph = new Sprite(attackAnimationTelegraph);
         attackAnimation.loadAnimationFromSheet("images/boss_attack.png", 1, 1, 60);
+        attackAnimation.buildMasks();
         attack = new Sprite(attackAnimation);
 
         health = 1400;
@@ -65,8 +79,8 @@ public class Boss extends Sprite {
      */
     private Rectangle getHealthRectangle(int xo) {
         Rectangle r = new Rectangle();
-        r.x = (int)(getX() + xo);
-        r.y = (int)((getY()) - getHeight()/2 - 10);
+        r.x = (int)(getDrawX() + xo);
+        r.y = (int)((getDrawY()) - getHeight()/2 - 10);
         r.width = getHealth()/3;
         r.height = 3;
         return r;
@@ -120,27 +134,25 @@ public class Boss extends Sprite {
     }
 
     /**
-     * Overload of the drawTransformed method. Draws both this enemy sprite and the
-     * attack sprite.
-     * @param g Graphics2D object used for drawing sprites
+     * Records the boss, both attack sprites and the healthbar for drawing.
+     * @param s snapshot to record into
      * @param xo x offset
      * @param yo y offset
      */
-    public void drawTransformed(Graphics2D g, int xo, int yo) {
+    public void capture(RenderSnapshot s, int xo, int yo) {
 
         this.setScale(3);
         this.setOffsets(xo, yo);
-        super.drawTransformed(g);
+        s.addSprite(this);
 
         attackTelegraph.setOffsets(xo, yo);
-        attackTelegraph.drawTransformed(g);
+        s.addSprite(attackTelegraph);
 
         attack.setOffsets(xo, yo);
-        attack.drawTransformed(g);
+        s.addSprite(attack);
 
-        // draw the healthbar
-        g.setColor(getHealthColour());
-        g.draw(getHealthRectangle(xo));
+        // the healthbar
+        s.addOutline(this, getHealthColour(), getHealthRectangle(xo));
     }
 
     /**
@@ -1,6 +1,7 @@
 package sprite;
 
 import game2D.Animation;
+import game2D.RenderSnapshot;
 import game2D.Sprite;
 
 import java.awt.*;
@@ -13,19 +14,44 @@ public class Enemy extends Sprite {
     private final String imagePath = "images/enemy.png";
     private int health;
     private int jumpTimer = 0;
+    private boolean playerInSight = true;
 
     public Enemy() {
         super();
 
         animation.loadAnimationFromSheet(imagePath, 4, 1, 60);
+        animation.buildMasks();
         super.setAnimation(animation);
         attackAnimation.loadAnimationFromSheet("images/lightning.png", 8, 1, 60);
+        attackAnimation.buildMasks();
         attack = new Sprite(attackAnimation);
         attack.show();
 
         health = 140;
     }
 
+    /**
+     * Puts the enemy and its attack back as they were when created, so the enemy
+     * can be placed in another level once it has been returned to its pool.
+     */
+    public void reset() {
+        setX(0);
+        setY(0);
+        stop();
+        animation.start();
+        animation.play();
+        health = 140;
+        jumpTimer = 0;
+        playerInSight = true;
+
+        attack.setX(0);
+        attack.setY(0);
+        attack.stop();
+        attackAnimation.start();
+        attackAnimation.play();
+        attack.show();
+    }
+
     /**
      * Inflicts damage to this enemy
      */
@@ -43,6 +69,15 @@ public class Enemy extends Sprite {
         return attack;
     }
 
+    /**
+     * Sets whether the enemy can see the player, an enemy only sends its attack
+     * after a player it can see.
+     * @param inSight - false if there are solid tiles between the enemy and the player
+     */
+    public void setPlayerInSight(boolean inSight) {
+        playerInSight = inSight;
+    }
+
     /**
      * Not a mutator - used to set initial placement of the attack
      */
@@ -58,8 +93,8 @@ public class Enemy extends Sprite {
      */
     private Rectangle getHealthRectangle(int xo) {
         Rectangle r = new Rectangle();
-        r.x = (int)(getX() + xo);
-        r.y = (int)((getY()) - getHeight()/2 - 10);
+        r.x = (int)(getDrawX() + xo);
+        r.y = (int)((getDrawY()) - getHeight()/2 - 10);
         r.width = getHealth();
         r.height = 3;
         return r;
@@ -88,23 +123,21 @@ public class Enemy extends Sprite {
     }
 
     /**
-     * Overload of the drawTransformed method. Draws both this enemy sprite and the
-     * attack sprite.
-     * @param g Graphics2D object used for drawing sprites
+     * Records this enemy, its attack and its healthbar for drawing.
+     * @param s snapshot to record into
      * @param xo x offset
      * @param yo y offset
      */
-    public void drawTransformed(Graphics2D g, int xo, int yo) {
+    public void capture(RenderSnapshot s, int xo, int yo) {
 
         this.setOffsets(xo, yo);
-        super.drawTransformed(g);
+        s.addSprite(this);
 
         attack.setOffsets(xo, yo);
-        attack.drawTransformed(g);
+        s.addSprite(attack);
 
-        // draw the healthbar
-        g.setColor(getHealthColour());
-        g.draw(getHealthRectangle(xo));
+        // the healthbar
+        s.addOutline(this, getHealthColour(), getHealthRectangle(xo));
     }
 
     /**
@@ -121,8 +154,8 @@ public class Enemy extends Sprite {
             direction = -1;
         }
 
-        // move towards player when close enough
-        if ((attack.getX() - playerX) * direction < 500) {
+        // move towards player when close enough and in sight
+        if (playerInSight && (attack.getX() - playerX) * direction < 500) {
             // the multiplication of direction needs to be reversed
             // enables following left or right
             attack.setVelocityX(0.04f * (0 - direction));
@@ -25,6 +25,11 @@ public class Hero extends Sprite {
         running.loadAnimationFromSheet(imagePathRunning, 5, 1, 120);
         fire.loadAnimationFromSheet(imagePathfire,5,1,60);
         jump.loadAnimationFromSheet(imagePathjump, 5,1,60);
+        // enemies and their attacks only hit the hero's visible pixels
+        idle.buildMasks();
+        running.buildMasks();
+        fire.buildMasks();
+        jump.buildMasks();
         setIdle();
     }
 
@@ -73,8 +78,8 @@ public class Hero extends Sprite {
 
     public Rectangle getHealthRectangle(int xo) {
         Rectangle r = new Rectangle();
-        r.x = (int)(getX() + xo);
-        r.y = (int)((getY()) - getHeight()/2 - 10);
+        r.x = (int)(getDrawX() + xo);
+        r.y = (int)((getDrawY()) - getHeight()/2 - 10);
         r.width = getHealth()/10;
         r.height = 3;
         return r;
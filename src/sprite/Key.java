@@ -9,12 +9,24 @@ import java.security.SecureRandom;
 import java.util.Random;
 
 public class Key extends Sprite {
+    // the key is placed in a column from KEY_FIRST_COLUMN up to KEY_FIRST_COLUMN + KEY_COLUMNS - 1
+    public static final int KEY_FIRST_COLUMN = 142;
+    public static final int KEY_COLUMNS = 13;
     private Animation keyAnimation = new Animation();;
     private final String imagePath = "images/key.png";
-    private Random rng = new SecureRandom();
+    private Random rng;
 
     public Key() {
+        this(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Creates a key that is positioned by a generator started from 'seed',
+     * so it lands in the same places each time for the same seed.
+     */
+    public Key(long seed) {
         super();
+        rng = new Random(seed);
 
         keyAnimation.addFrame(new ImageIcon(imagePath).getImage(), 60);
         super.setAnimation(keyAnimation);
@@ -37,11 +49,11 @@ public class Key extends Sprite {
         }
 
         // use RNG to pick key position
-        int x = rng.nextInt(13) + 142;
+        int x = rng.nextInt(KEY_COLUMNS) + KEY_FIRST_COLUMN;
         int y = rng.nextInt(5) + 8;
         // loop until an empty spot is found in the given range
         while (tmap.getTileChar(x, y) != '.') {
-            x = rng.nextInt(13) + 142;
+            x = rng.nextInt(KEY_COLUMNS) + KEY_FIRST_COLUMN;
             y = rng.nextInt(5) + 8;
         }
         // set key position
@@ -3,8 +3,8 @@ package sprite;
 import game2D.Animation;
 import game2D.Sound;
 import game2D.Sprite;
-
-import javax.swing.*;
+import game2D.TileHit;
+import game2D.TileMap;
 
 public class Projectile extends Sprite {
 
@@ -12,25 +12,54 @@ public class Projectile extends Sprite {
     private Sound fireSound;
     private final String imagePath = "images/fire_preliminary.png";
     private Sprite player;
+    // the part of the x axis the fire actually covers, it stops at the first wall
+    private float reachMin = Float.NEGATIVE_INFINITY;
+    private float reachMax = Float.POSITIVE_INFINITY;
 
-    public Projectile(Sprite player) {
+    /**
+     * Sets up the projectile's animation, sharing the frames of every other
+     * projectile, and its sound. Projectiles are kept in a pool and fired
+     * again with launch(), so this only happens once per projectile.
+     */
+    public Projectile() {
         super();
         fire = new Animation();
         fire.loadAnimationFromSheet(imagePath, 1, 7, 60);
         fireSound = new Sound("sounds/fire.wav", Sound.NO_EFFECT, false);
         super.setAnimation(fire);
-        super.setFlipX(player.getFlipX());
+    }
+
+    /**
+     * Places the projectile in front of the player, facing the same way, with
+     * its animation at the start. The projectile is shown by the caller.
+     * @param player - the sprite firing the projectile
+     */
+    public void launch(Sprite player) {
         this.player = player;
+        super.setFlipX(player.getFlipX());
+        fire.start();
+        reachMin = Float.NEGATIVE_INFINITY;
+        reachMax = Float.POSITIVE_INFINITY;
         configureDirection();
     }
 
+    /**
+     * Clears the projectile once it has been put back in its pool. Its sound
+     * is left to finish playing.
+     */
+    public void reset() {
+        player = null;
+        setX(0);
+        setY(0);
+        stop();
+    }
+
     /**
      * Configures direction of projectile, either left or right
      */
     private void configureDirection() {
         // place on right side of player
         if (player.getFlipX()) {
-            // trick to get animation width, when loading animations from sheets, the width is set to -1
             setX(player.getX() - getWidth());
         } else {
             setX(player.getX() + player.getWidth());
@@ -38,25 +67,47 @@ public class Projectile extends Sprite {
     }
 
     /**
-     * Starts sound playing
+     * Stops the fire at the first solid tile in its path. Should be called once
+     * the projectile is in place.
+     * @param tmap - the map the projectile is on
+     * @param hit - reused to hold the wall that was hit
      */
-    public void playSound() {
-        fireSound.start();
+    public void clipToMap(TileMap tmap, TileHit hit) {
+        // sprites are drawn a tile higher than the map
+        float y = getY() + getHeight() / 2f - tmap.getTileHeight();
+        float start = getX();
+        float end = getX() + getWidth();
+        reachMin = start;
+        reachMax = end;
+        if (getFlipX()) {
+            // fired to the left, from the right hand end
+            if (tmap.raycast(end, y, start, y, hit)) {
+                reachMin = hit.getX();
+            }
+        } else if (tmap.raycast(start, y, end, y, hit)) {
+            reachMax = hit.getX();
+        }
     }
 
     /**
-     * Interupts thread playing sound
+     * @param s - sprite to check
+     * @return true if the fire reaches as far as the sprite, rather than stopping at a wall before it
      */
-    public void stopSound() {
-        fireSound.interrupt();
+    public boolean reaches(Sprite s) {
+        return s.getX() < reachMax && s.getX() + s.getWidth() > reachMin;
+    }
+
+    /**
+     * Starts sound playing
+     */
+    public void playSound() {
+        fireSound.play();
     }
 
-    @Override
     /**
-     * Defaul
-     * @return int - represents width of animation
+     * Stops the sound playing
      */
-    public int getWidth() {
-        return new ImageIcon(imagePath).getIconWidth();
+    public void stopSound() {
+        fireSound.stopPlaying();
     }
 }
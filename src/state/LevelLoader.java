@@ -0,0 +1,221 @@
+package state;
+
+import game2D.EntityStore;
+import game2D.SpritePool;
+import game2D.TileMap;
+import sprite.Boss;
+import sprite.Enemy;
+import sprite.Key;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds levels, either straight away or ahead of time on a background
+ * thread so that opening the next map, reading the parts of it the level
+ * starts in and loading its enemies doesn't stall the game loop when the
+ * level changes.
+ *
+ * All methods apart from build() should be called from the game loop. Each
+ * level is built with its own random number generator, seeded from the
+ * game's generator at the point the level is asked for, so enemies are
+ * placed the same way whether or not the level was built in the background.
+ */
+public class LevelLoader {
+
+    // One loader thread shared by every loader, it only ever has a level or two to build
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Level loader");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final int screenWidth;
+    private final int regionColumns;
+    private final int regionsLoaded;
+    private final long bossSeed;
+
+    // enemies are handed back by the game when killed or when their level ends, and
+    // placed again in later levels rather than making new ones
+    private final SpritePool<Enemy> enemyPool = new SpritePool<Enemy>(16) {
+        protected Enemy create() {
+            return new Enemy();
+        }
+
+        protected void reset(Enemy e) {
+            e.reset();
+        }
+    };
+
+    // the level being built in the background, if any
+    private Future<PreparedLevel> pending;
+    private int pendingLevel = 0;
+
+    /**
+     * @param screenWidth width of the screen in pixels, enemies aren't placed in the last screen of a map
+     * @param regionColumns width of a streamed map region in tiles
+     * @param regionsLoaded number of streamed map regions to keep loaded
+     * @param bossSeed seed for the boss' random number generator
+     */
+    public LevelLoader(int screenWidth, int regionColumns, int regionsLoaded, long bossSeed) {
+        this.screenWidth = screenWidth;
+        this.regionColumns = regionColumns;
+        this.regionsLoaded = regionsLoaded;
+        this.bossSeed = bossSeed;
+        // enough for the first level and the second being built before the first is over
+        enemyPool.prewarm(15);
+    }
+
+    // getter for the pool the loader takes enemies from, which they should be handed back to
+    public SpritePool<Enemy> getEnemyPool() {
+        return enemyPool;
+    }
+
+    /**
+     * Starts building 'level' in the background. Does nothing if it is already being built,
+     * a different level that was being built is discarded.
+     * @param level - the level to build
+     * @param rng - the game's random number generator, used to seed the level's one
+     */
+    public void prepare(final int level, Random rng) {
+        if (pending != null && pendingLevel == level) {
+            return;
+        }
+        discardPending();
+
+        final long seed = rng.nextLong();
+        pendingLevel = level;
+        pending = worker.submit(new Callable<PreparedLevel>() {
+            public PreparedLevel call() {
+                return build(level, seed);
+            }
+        });
+    }
+
+    /**
+     * Gets 'level' ready to be played. If it was prepared in the background it is
+     * waited for if it isn't finished yet, otherwise it is built here and now, and
+     * any other level being prepared is discarded.
+     * @param level - the level to get
+     * @param rng - the game's random number generator, used to seed the level's one if it is built here
+     * @return the level, ready to be swapped in
+     */
+    public PreparedLevel take(int level, Random rng) {
+        if (pending != null && pendingLevel != level) {
+            discardPending();
+        }
+        if (pending != null) {
+            Future<PreparedLevel> f = pending;
+            pending = null;
+            pendingLevel = 0;
+            try {
+                return f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for level " + level);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to build level " + level, e.getCause());
+            }
+        }
+
+        return build(level, rng.nextLong());
+    }
+
+    /**
+     * Throws away the level being built in the background, if any. The build
+     * isn't cancelled, as it may already have taken enemies from the pool, so
+     * its enemies are handed back once it is done. The worker runs one task at
+     * a time, so that happens straight after the build.
+     */
+    private void discardPending() {
+        if (pending == null) {
+            return;
+        }
+        final Future<PreparedLevel> discarded = pending;
+        pending = null;
+        pendingLevel = 0;
+        worker.execute(new Runnable() {
+            public void run() {
+                try {
+                    discarded.get().getEnemies().clear(enemyPool);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    System.err.println("Discarded level failed to build: " + e.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the map for 'level' and places its enemies, taken from the enemy pool,
+     * then loads the regions of the map around the start, the enemies and where
+     * the key can go, so the game loop doesn't have to wait for them.
+     * Safe to call from any thread as the pool can be shared and nothing else it
+     * creates is shared until it is returned.
+     * @param level - the level to build
+     * @param seed - seed for placing the level's enemies
+     * @return the built level
+     */
+    public PreparedLevel build(int level, long seed) {
+        // The compiled maps are made from maps/*.txt by game2D.MapCompiler.
+        TileMap map = new TileMap();
+        map.openStreamingMap("maps", "map" + level + TileMap.COMPILED_EXTENSION, regionColumns, regionsLoaded);
+
+        EntityStore<Enemy> enemies = new EntityStore<Enemy>(16);
+        Boss boss = null;
+        Random rng = new Random(seed);
+
+        // decide what enemies to add based on level
+        switch (level) {
+            // for first two levels spawn lots of enemies
+            case 1:
+            case 2:
+                int enemyCount = 5 * level;
+                int rangeWidth = (map.getPixelWidth() - screenWidth) / enemyCount;
+                for (int i = 0; i < enemyCount; i++) {
+
+                    int range = i * rangeWidth;
+                    // reduce the range by 300, ensures enemies don't spawn on player.
+                    if (i == 0) {
+                        range += 300;
+                    }
+                    Enemy e = enemyPool.acquire();
+                    e.setX(rng.nextInt(rangeWidth) + range);
+                    e.setAttackInitialX();
+                    e.show();
+                    enemies.add(e, EntityStore.GRAVITY);
+                }
+                break;
+            case 3: // level 3 is a boss battle
+                boss = new Boss(bossSeed);
+                boss.setX(1000);
+                boss.show();
+                break;
+            default:
+                // do nothing if a level isn't specified
+                break;
+        }
+
+        // the camera starts at the left edge, and the region after it is fetched as soon as the level starts
+        int tileWidth = map.getTileWidth();
+        map.preload(0, screenWidth + regionColumns * tileWidth);
+        map.preload(Key.KEY_FIRST_COLUMN * tileWidth, Key.KEY_COLUMNS * tileWidth);
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy e = enemies.getSprite(i);
+            map.preload((int)e.getX(), e.getWidth());
+        }
+        if (boss != null) {
+            map.preload((int)boss.getX(), boss.getWidth());
+        }
+
+        return new PreparedLevel(level, map, enemies, boss);
+    }
+}
@@ -0,0 +1,47 @@
+package state;
+
+import game2D.EntityStore;
+import game2D.TileMap;
+import sprite.Boss;
+import sprite.Enemy;
+
+/**
+ * Everything a level needs that is slow to create: its tile map and the
+ * enemies placed on it, with their animations already loaded. Made by a
+ * LevelLoader, possibly on another thread, and handed to the game in one
+ * piece once it is complete.
+ */
+public class PreparedLevel {
+
+    private final int level;
+    private final TileMap map;
+    private final EntityStore<Enemy> enemies;
+    private final Boss boss;
+
+    public PreparedLevel(int level, TileMap map, EntityStore<Enemy> enemies, Boss boss) {
+        this.level = level;
+        this.map = map;
+        this.enemies = enemies;
+        this.boss = boss;
+    }
+
+    // getter for the level number
+    public int getLevel() {
+        return level;
+    }
+
+    // getter for the opened tile map
+    public TileMap getMap() {
+        return map;
+    }
+
+    // getter for the enemies, already positioned and shown
+    public EntityStore<Enemy> getEnemies() {
+        return enemies;
+    }
+
+    // getter for the boss, null on levels without one
+    public Boss getBoss() {
+        return boss;
+    }
+}